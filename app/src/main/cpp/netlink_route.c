@@ -0,0 +1,408 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * NETLINK_ROUTE backend of NetlinkRoutingBackend: policy rules and routes
+ * are added, deleted and dumped with rtnetlink messages instead of forking
+ * ip. All functions return 0 or a negative errno.
+ */
+
+#include <errno.h>
+#include <jni.h>
+#include <net/if.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <unistd.h>
+#include <linux/fib_rules.h>
+#include <linux/netlink.h>
+#include <linux/rtnetlink.h>
+
+#define BUF_SIZE 32768
+/* JNI parameters not needed by a function */
+#define UNUSED __attribute__((unused))
+
+struct nl_req {
+	struct nlmsghdr nh;
+	union {
+		struct rtmsg rt;
+		struct fib_rule_hdr frh;
+	} u;
+	char attrs[256];
+};
+
+static uint32_t seq_nb = 0;
+
+static int family_of(jint family)
+{
+	return family == 6 ? AF_INET6 : AF_INET;
+}
+
+static void add_attr(struct nlmsghdr *nh, int type, const void *data, int len)
+{
+	struct rtattr *rta = (struct rtattr *) (((char *) nh) + NLMSG_ALIGN(nh->nlmsg_len));
+
+	rta->rta_type = type;
+	rta->rta_len = RTA_LENGTH(len);
+	memcpy(RTA_DATA(rta), data, len);
+	nh->nlmsg_len = NLMSG_ALIGN(nh->nlmsg_len) + RTA_ALIGN(rta->rta_len);
+}
+
+static void add_attr_u32(struct nlmsghdr *nh, int type, uint32_t value)
+{
+	add_attr(nh, type, &value, sizeof(value));
+}
+
+/* Send a request and wait for its acknowledgement */
+static int talk(int fd, struct nlmsghdr *nh)
+{
+	char buf[BUF_SIZE];
+	struct sockaddr_nl kernel;
+
+	memset(&kernel, 0, sizeof(kernel));
+	kernel.nl_family = AF_NETLINK;
+	nh->nlmsg_seq = ++seq_nb;
+	nh->nlmsg_flags |= NLM_F_REQUEST | NLM_F_ACK;
+
+	if (sendto(fd, nh, nh->nlmsg_len, 0, (struct sockaddr *) &kernel, sizeof(kernel)) < 0)
+		return -errno;
+
+	for (;;) {
+		ssize_t len = recv(fd, buf, sizeof(buf), 0);
+		struct nlmsghdr *h;
+
+		if (len < 0) {
+			if (errno == EINTR)
+				continue;
+			return -errno;
+		}
+
+		for (h = (struct nlmsghdr *) buf; NLMSG_OK(h, (size_t) len); h = NLMSG_NEXT(h, len)) {
+			if (h->nlmsg_seq != nh->nlmsg_seq)
+				continue;
+			if (h->nlmsg_type == NLMSG_ERROR) {
+				struct nlmsgerr *err = (struct nlmsgerr *) NLMSG_DATA(h);
+				return err->error;
+			}
+		}
+	}
+}
+
+typedef int (*dump_cb)(struct nlmsghdr *h, void *arg);
+
+/* Send a dump request and call cb for each message of the answer */
+static int dump(int fd, int type, int family, dump_cb cb, void *arg)
+{
+	char buf[BUF_SIZE];
+	struct {
+		struct nlmsghdr nh;
+		struct rtmsg rt;
+	} req;
+	struct sockaddr_nl kernel;
+
+	memset(&req, 0, sizeof(req));
+	memset(&kernel, 0, sizeof(kernel));
+	kernel.nl_family = AF_NETLINK;
+	req.nh.nlmsg_len = NLMSG_LENGTH(sizeof(struct rtmsg));
+	req.nh.nlmsg_type = type;
+	req.nh.nlmsg_flags = NLM_F_REQUEST | NLM_F_DUMP;
+	req.nh.nlmsg_seq = ++seq_nb;
+	req.rt.rtm_family = family;
+
+	if (sendto(fd, &req, req.nh.nlmsg_len, 0, (struct sockaddr *) &kernel, sizeof(kernel)) < 0)
+		return -errno;
+
+	for (;;) {
+		ssize_t len = recv(fd, buf, sizeof(buf), 0);
+		struct nlmsghdr *h;
+
+		if (len < 0) {
+			if (errno == EINTR)
+				continue;
+			return -errno;
+		}
+
+		for (h = (struct nlmsghdr *) buf; NLMSG_OK(h, (size_t) len); h = NLMSG_NEXT(h, len)) {
+			int ret;
+
+			if (h->nlmsg_seq != req.nh.nlmsg_seq)
+				continue;
+			if (h->nlmsg_type == NLMSG_DONE)
+				return 0;
+			if (h->nlmsg_type == NLMSG_ERROR)
+				return ((struct nlmsgerr *) NLMSG_DATA(h))->error;
+			ret = cb(h, arg);
+			if (ret < 0)
+				return ret;
+		}
+	}
+}
+
+/* Table of a rule or a route: the attribute if any, else the header */
+static uint32_t get_table(struct rtattr *rta, int len, int table_attr, uint32_t hdr_table)
+{
+	for (; RTA_OK(rta, len); rta = RTA_NEXT(rta, len)) {
+		if (rta->rta_type == table_attr)
+			return *(uint32_t *) RTA_DATA(rta);
+	}
+	return hdr_table;
+}
+
+JNIEXPORT jint JNICALL
+Java_be_uclouvain_multipathcontrol_system_NetlinkRoutingBackend_nativeOpen(JNIEnv *env UNUSED, jclass clazz UNUSED)
+{
+	struct sockaddr_nl local;
+	int fd = socket(AF_NETLINK, SOCK_RAW | SOCK_CLOEXEC, NETLINK_ROUTE);
+
+	if (fd < 0)
+		return -errno;
+
+	memset(&local, 0, sizeof(local));
+	local.nl_family = AF_NETLINK;
+	if (bind(fd, (struct sockaddr *) &local, sizeof(local)) < 0) {
+		int err = -errno;
+		close(fd);
+		return err;
+	}
+
+	return fd;
+}
+
+JNIEXPORT jstring JNICALL
+Java_be_uclouvain_multipathcontrol_system_NetlinkRoutingBackend_nativeStrerror(JNIEnv *env, jclass clazz UNUSED, jint err)
+{
+	return (*env)->NewStringUTF(env, strerror(err));
+}
+
+JNIEXPORT void JNICALL
+Java_be_uclouvain_multipathcontrol_system_NetlinkRoutingBackend_nativeClose(JNIEnv *env UNUSED, jclass clazz UNUSED, jint fd)
+{
+	close(fd);
+}
+
+JNIEXPORT jint JNICALL
+Java_be_uclouvain_multipathcontrol_system_NetlinkRoutingBackend_nativeRule(JNIEnv *env, jclass clazz UNUSED,
+		jint fd, jboolean add, jint family, jbyteArray src, jint src_len, jint prio, jint table)
+{
+	struct nl_req req;
+
+	memset(&req, 0, sizeof(req));
+	req.nh.nlmsg_len = NLMSG_LENGTH(sizeof(struct fib_rule_hdr));
+	req.nh.nlmsg_type = add ? RTM_NEWRULE : RTM_DELRULE;
+	req.nh.nlmsg_flags = add ? NLM_F_CREATE | NLM_F_EXCL : 0;
+	req.u.frh.family = family_of(family);
+	req.u.frh.action = add || table > 0 ? FR_ACT_TO_TBL : FR_ACT_UNSPEC;
+
+	if (src != NULL) {
+		jbyte addr[16];
+		jsize len = (*env)->GetArrayLength(env, src);
+
+		if (len > (jsize) sizeof(addr))
+			return -EINVAL;
+		(*env)->GetByteArrayRegion(env, src, 0, len, addr);
+		req.u.frh.src_len = src_len;
+		add_attr(&req.nh, FRA_SRC, addr, len);
+	}
+	if (prio > 0)
+		add_attr_u32(&req.nh, FRA_PRIORITY, prio);
+	if (table > 0) {
+		req.u.frh.table = table < 256 ? table : RT_TABLE_UNSPEC;
+		add_attr_u32(&req.nh, FRA_TABLE, table);
+	}
+
+	return talk(fd, &req.nh);
+}
+
+JNIEXPORT jint JNICALL
+Java_be_uclouvain_multipathcontrol_system_NetlinkRoutingBackend_nativeRoute(JNIEnv *env, jclass clazz UNUSED,
+		jint fd, jboolean add, jint family, jbyteArray dst, jint dst_len, jbyteArray gw, jstring dev, jint table)
+{
+	struct nl_req req;
+	jbyte addr[16];
+	jsize len;
+
+	memset(&req, 0, sizeof(req));
+	req.nh.nlmsg_len = NLMSG_LENGTH(sizeof(struct rtmsg));
+	req.nh.nlmsg_type = add ? RTM_NEWROUTE : RTM_DELROUTE;
+	req.nh.nlmsg_flags = add ? NLM_F_CREATE | NLM_F_EXCL : 0;
+	req.u.rt.rtm_family = family_of(family);
+	req.u.rt.rtm_table = table < 256 ? table : RT_TABLE_UNSPEC;
+	if (add) {
+		req.u.rt.rtm_protocol = RTPROT_BOOT;
+		req.u.rt.rtm_type = RTN_UNICAST;
+		/* like ip: a route without gateway is directly connected */
+		req.u.rt.rtm_scope = gw == NULL ? RT_SCOPE_LINK : RT_SCOPE_UNIVERSE;
+	} else {
+		req.u.rt.rtm_scope = RT_SCOPE_NOWHERE;
+	}
+	add_attr_u32(&req.nh, RTA_TABLE, table);
+
+	if (dst != NULL) {
+		len = (*env)->GetArrayLength(env, dst);
+		if (len > (jsize) sizeof(addr))
+			return -EINVAL;
+		(*env)->GetByteArrayRegion(env, dst, 0, len, addr);
+		req.u.rt.rtm_dst_len = dst_len;
+		add_attr(&req.nh, RTA_DST, addr, len);
+	}
+	if (gw != NULL) {
+		len = (*env)->GetArrayLength(env, gw);
+		if (len > (jsize) sizeof(addr))
+			return -EINVAL;
+		(*env)->GetByteArrayRegion(env, gw, 0, len, addr);
+		add_attr(&req.nh, RTA_GATEWAY, addr, len);
+	}
+	if (dev != NULL) {
+		const char *name = (*env)->GetStringUTFChars(env, dev, NULL);
+		unsigned int ifindex = if_nametoindex(name);
+
+		(*env)->ReleaseStringUTFChars(env, dev, name);
+		if (ifindex == 0)
+			return -ENODEV;
+		add_attr_u32(&req.nh, RTA_OIF, ifindex);
+	}
+
+	return talk(fd, &req.nh);
+}
+
+struct route_list {
+	uint32_t table;
+	struct nlmsghdr **msgs;
+	int count;
+	int size;
+};
+
+static int collect_route(struct nlmsghdr *h, void *arg)
+{
+	struct route_list *list = (struct route_list *) arg;
+	struct rtmsg *rt = (struct rtmsg *) NLMSG_DATA(h);
+	uint32_t table = get_table(RTM_RTA(rt), RTM_PAYLOAD(h), RTA_TABLE, rt->rtm_table);
+	struct nlmsghdr *copy;
+
+	if (h->nlmsg_type != RTM_NEWROUTE || table != list->table)
+		return 0;
+
+	if (list->count == list->size) {
+		int size = list->size ? list->size * 2 : 16;
+		struct nlmsghdr **msgs = realloc(list->msgs, size * sizeof(*msgs));
+
+		if (msgs == NULL)
+			return -ENOMEM;
+		list->msgs = msgs;
+		list->size = size;
+	}
+
+	copy = malloc(h->nlmsg_len);
+	if (copy == NULL)
+		return -ENOMEM;
+	memcpy(copy, h, h->nlmsg_len);
+	list->msgs[list->count++] = copy;
+
+	return 0;
+}
+
+/* Like "ip route flush table X": dump the routes, then delete them */
+JNIEXPORT jint JNICALL
+Java_be_uclouvain_multipathcontrol_system_NetlinkRoutingBackend_nativeFlushTable(JNIEnv *env UNUSED, jclass clazz UNUSED,
+		jint fd, jint family, jint table)
+{
+	struct route_list list;
+	int ret, i;
+
+	memset(&list, 0, sizeof(list));
+	list.table = table;
+
+	ret = dump(fd, RTM_GETROUTE, family_of(family), collect_route, &list);
+
+	for (i = 0; i < list.count; i++) {
+		if (ret >= 0) {
+			list.msgs[i]->nlmsg_type = RTM_DELROUTE;
+			list.msgs[i]->nlmsg_flags = 0;
+			ret = talk(fd, list.msgs[i]);
+			/* already removed, e.g. with its interface */
+			if (ret == -ESRCH)
+				ret = 0;
+		}
+		free(list.msgs[i]);
+	}
+	free(list.msgs);
+
+	return ret;
+}
+
+struct rule_list {
+	jint *rules;
+	int count;
+	int size;
+};
+
+static int collect_rule(struct nlmsghdr *h, void *arg)
+{
+	struct rule_list *list = (struct rule_list *) arg;
+	struct fib_rule_hdr *frh = (struct fib_rule_hdr *) NLMSG_DATA(h);
+	int len = h->nlmsg_len - NLMSG_LENGTH(sizeof(*frh));
+	struct rtattr *rta = (struct rtattr *) (((char *) frh) + NLMSG_ALIGN(sizeof(*frh)));
+	uint32_t table = frh->table, prio = 0;
+
+	if (h->nlmsg_type != RTM_NEWRULE)
+		return 0;
+
+	for (; RTA_OK(rta, len); rta = RTA_NEXT(rta, len)) {
+		if (rta->rta_type == FRA_TABLE)
+			table = *(uint32_t *) RTA_DATA(rta);
+		else if (rta->rta_type == FRA_PRIORITY)
+			prio = *(uint32_t *) RTA_DATA(rta);
+	}
+
+	if (list->count + 2 > list->size) {
+		int size = list->size ? list->size * 2 : 64;
+		jint *rules = realloc(list->rules, size * sizeof(*rules));
+
+		if (rules == NULL)
+			return -ENOMEM;
+		list->rules = rules;
+		list->size = size;
+	}
+	list->rules[list->count++] = table;
+	list->rules[list->count++] = prio;
+
+	return 0;
+}
+
+/* [table, priority] of each rule, null on error */
+JNIEXPORT jintArray JNICALL
+Java_be_uclouvain_multipathcontrol_system_NetlinkRoutingBackend_nativeRuleDump(JNIEnv *env, jclass clazz UNUSED,
+		jint fd, jint family)
+{
+	struct rule_list list;
+	jintArray result = NULL;
+
+	memset(&list, 0, sizeof(list));
+
+	if (dump(fd, RTM_GETRULE, family_of(family), collect_rule, &list) == 0) {
+		result = (*env)->NewIntArray(env, list.count);
+		if (result != NULL)
+			(*env)->SetIntArrayRegion(env, result, 0, list.count, list.rules);
+	}
+	free(list.rules);
+
+	return result;
+}
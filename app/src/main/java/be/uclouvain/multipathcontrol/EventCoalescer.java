@@ -0,0 +1,82 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Collapses a burst of events into a single call of the listener.
+ *
+ * The listener is called once no event has been signalled for settleWindow
+ * ms, but never later than maxDelay ms after the first event of the burst.
+ * signal() and cancel() must be called on the handler's thread, the
+ * listener runs there.
+ */
+public class EventCoalescer {
+
+	public interface Listener {
+		/* @param merged number of events of the burst */
+		void onSettled(int merged);
+	}
+
+	private final Handler handler;
+	private final Listener listener;
+	private final long settleWindow;
+	private final long maxDelay;
+
+	private int pending = 0;
+	private long firstEventTime;
+
+	private final Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			int merged = pending;
+			pending = 0;
+			listener.onSettled(merged);
+		}
+	};
+
+	public EventCoalescer(Handler handler, long settleWindow, long maxDelay, Listener listener) {
+		this.handler = handler;
+		this.listener = listener;
+		this.settleWindow = settleWindow;
+		this.maxDelay = Math.max(settleWindow, maxDelay);
+	}
+
+	public void signal() {
+		long now = SystemClock.uptimeMillis();
+		if (pending == 0) {
+			firstEventTime = now;
+		}
+		pending++;
+
+		handler.removeCallbacks(flush);
+		long deadline = Math.min(now + settleWindow, firstEventTime + maxDelay);
+		handler.postAtTime(flush, deadline);
+	}
+
+	/* Drop the pending burst, e.g. when stopping */
+	public void cancel() {
+		handler.removeCallbacks(flush);
+		pending = 0;
+	}
+}
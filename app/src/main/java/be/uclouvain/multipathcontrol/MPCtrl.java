@@ -20,6 +20,10 @@
 
 package be.uclouvain.multipathcontrol;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.NetworkInterface;
 import java.util.List;
 
@@ -28,64 +32,192 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.PowerManager;
 import be.uclouvain.multipathcontrol.global.Config;
+import be.uclouvain.multipathcontrol.global.TableStore;
 import be.uclouvain.multipathcontrol.ifaces.IPRoute;
 import be.uclouvain.multipathcontrol.ifaces.MobileDataMgr;
+import be.uclouvain.multipathcontrol.ifaces.SystemInterfaceSource;
+import be.uclouvain.multipathcontrol.stats.HandoverLatency;
 import be.uclouvain.multipathcontrol.stats.SaveDataHandover;
+import be.uclouvain.multipathcontrol.stats.StatsStore;
 import be.uclouvain.multipathcontrol.system.Cmd;
+import be.uclouvain.multipathcontrol.system.IPEvent;
+import be.uclouvain.multipathcontrol.system.IPMonitor;
 import be.uclouvain.multipathcontrol.system.IPRouteUtils;
+import be.uclouvain.multipathcontrol.system.RootShell;
+import be.uclouvain.multipathcontrol.system.Clock;
+import be.uclouvain.multipathcontrol.system.TableAllocator;
+import be.uclouvain.multipathcontrol.trace.TraceRecord;
+import be.uclouvain.multipathcontrol.trace.TraceRecorder;
 
 public class MPCtrl {
 
+	/* the service may be stopped with samples to write: wait at most (ms) */
+	private static final long STATS_WRITE_TIMEOUT = 1000;
+
 	private final Context context;
 	private final MobileDataMgr mobileDataMgr;
+	/* All the control work is serialized on this thread, never on the UI one */
+	private final HandlerThread controlThread;
 	private final Handler handler;
 	private final IPRoute iproute;
+	private final IPMonitor ipMonitor;
+	private final EventCoalescer coalescer;
+	/* an IP event of the current burst changed the routing */
+	private boolean ipChanged = false;
 	private static long lastTimeHandler;
+	/* current period of runnableSetMobileDataActive */
+	private long mobileDataActiveDelay;
 
+	/* Registered with the control handler: called on the control thread */
 	private BroadcastReceiver mConnReceiver = new BroadcastReceiver() {
 		@Override
 		public void onReceive(Context context, Intent intent) {
+			HandoverLatency.getInstance().begin();
+			recordConnectivity(intent);
+			coalescer.signal();
+		}
+	};
+
+	/* The user is back: check the connections often again */
+	private BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			mobileDataMgr.invalidate();
+			tightenMobileDataActive();
+		}
+	};
+
+	/* One reconciliation, and one sample if the routes changed, per burst of events */
+	private EventCoalescer.Listener settledListener = new EventCoalescer.Listener() {
+		@Override
+		public void onSettled(int merged) {
+			mobileDataMgr.invalidate();
 			PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
             assert pm != null;
             if (pm.isScreenOn()) {
 				mobileDataMgr.setMobileDataActive(Config.mEnabled);
 			}
+			tightenMobileDataActive();
 
-			if (iproute.monitorInterfaces()) {
-				new SaveDataHandover(context);
+			boolean changed = iproute.monitorInterfaces() || ipChanged;
+			ipChanged = false;
+			if (changed) {
+				new SaveDataHandover(context, merged);
 			}
+			HandoverLatency.getInstance().settle();
+			// the events of the burst are kept if the service is killed
+			TraceRecorder.getInstance().flush();
+		}
+	};
+
+	/* Called on the IPMonitor thread: events are handled on the control one */
+	private IPMonitor.Listener ipListener = new IPMonitor.Listener() {
+		@Override
+		public void onIPEvent(final IPEvent event) {
+			final long receivedAt = HandoverLatency.getInstance().now();
+			TraceRecorder.getInstance().record(TraceRecord.Type.IP, event.line);
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					HandoverLatency latency = HandoverLatency.getInstance();
+					boolean started = latency.begin(receivedAt);
+					// rules are fixed now, the sample waits for the end of the burst
+					if (iproute.onIPEvent(event)) {
+						ipChanged = true;
+						coalescer.signal();
+					} else if (started) {
+						// e.g. the echo of our own changes: not a handover
+						latency.cancel();
+					}
+				}
+			});
 		}
 	};
 
 	public MPCtrl(Context context) {
 		this.context = context;
 
-		// to be sure that all connections will be managed by the proxy
-		restartIFaces();
-
 		Config.getDefaultConfig(context);
-		mobileDataMgr = new MobileDataMgr(context);
-		iproute = new IPRoute(mobileDataMgr);
+		TableAllocator.init(new TableStore(context));
+		if (Config.recordTrace) {
+			startTrace();
+		}
+		controlThread = new HandlerThread("MPCtrl");
+		controlThread.start();
+		handler = new Handler(controlThread.getLooper());
+
+		mobileDataMgr = new MobileDataMgr(context, handler);
+		SystemInterfaceSource interfaces = new SystemInterfaceSource();
+		TraceRecorder.getInstance().recordInterfaces(interfaces);
+		iproute = new IPRoute(interfaces, new IPRoute.Listener() {
+			@Override
+			public void onMobileRoutesUp(String iface) {
+				mobileDataMgr.keepMobileConnectionAlive();
+			}
+		});
+		iproute.setEnabled(Config.mEnabled);
+		coalescer = new EventCoalescer(handler, Config.settleWindow, Config.maxSettleDelay,
+				settledListener);
 
-		handler = new Handler();
+		// to be sure that all connections will be managed by the proxy
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				HandoverLatency.getInstance().begin();
+				restartIFaces();
+				iproute.monitorInterfaces();
+				HandoverLatency.getInstance().settle();
+				// opened (and migrated) before the first sample, not on the UI thread
+				StatsStore.getInstance(MPCtrl.this.context);
+			}
+		});
 		initHandler();
 
+		// react to address changes as soon as the kernel reports them
+		ipMonitor = new IPMonitor(ipListener);
+		ipMonitor.start();
+
 		/*
 		 * mConnReceiver will be called each time a change of connectivity
 		 * happen
 		 */
-		context.registerReceiver(mConnReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+		context.registerReceiver(mConnReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION),
+				null, handler);
+		context.registerReceiver(mScreenReceiver, new IntentFilter(Intent.ACTION_SCREEN_ON),
+				null, handler);
 	}
 
 	public void destroy() {
 		try {
 			context.unregisterReceiver(mConnReceiver);
 		} catch (IllegalArgumentException ignored) {}
+		try {
+			context.unregisterReceiver(mScreenReceiver);
+		} catch (IllegalArgumentException ignored) {}
 
-		handler.getLooper().quit();
+		ipMonitor.stop();
+		handler.removeCallbacks(runnableSetMobileDataActive);
+
+		// let the queued events finish before closing the shell they use
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				coalescer.cancel();
+				mobileDataMgr.stop();
+				StatsStore store = StatsStore.getInstance(context);
+				if (store != null) {
+					store.awaitWritten(STATS_WRITE_TIMEOUT);
+				}
+				RootShell.getInstance().close();
+				TraceRecorder.getInstance().stop();
+				controlThread.quit();
+			}
+		});
 	}
 
 	public boolean setStatus(boolean isChecked) {
@@ -93,17 +225,50 @@ public class MPCtrl {
 			return false;
 
 		Config.mEnabled = isChecked;
+		iproute.setEnabled(isChecked);
 		Config.saveStatus(context);
 
-		if (isChecked) {
-			if (iproute.monitorInterfaces()) {
-                new SaveDataHandover(context);
-            }
-		}
+		// routes set up again, or removed
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (iproute.monitorInterfaces()) {
+					new SaveDataHandover(context);
+				}
+			}
+		});
 
 		return true;
 	}
 
+	/* One new trace per start of the service, in files/traces/ */
+	private void startTrace() {
+		File dir = new File(context.getFilesDir(), "traces");
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			return;
+		}
+		File file = new File(dir, System.currentTimeMillis() + ".trace");
+		try {
+			TraceRecorder.getInstance().start(
+					new BufferedOutputStream(new FileOutputStream(file)), Clock.SYSTEM);
+		} catch (IOException ignored) {}
+	}
+
+	private void recordConnectivity(Intent intent) {
+		TraceRecorder recorder = TraceRecorder.getInstance();
+		if (!recorder.isRecording()) {
+			return;
+		}
+
+		NetworkInfo info = intent.getParcelableExtra(ConnectivityManager.EXTRA_NETWORK_INFO);
+		if (info == null || intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+			recorder.record(TraceRecord.Type.CONNECTIVITY, "none");
+		} else {
+			recorder.record(TraceRecord.Type.CONNECTIVITY, info.getTypeName() + "/"
+					+ info.getSubtypeName() + " " + info.getState());
+		}
+	}
+
 	private void restartIFaces() {
 		List<NetworkInterface> activeIfaces = IPRouteUtils.getActiveIfaces();
 		if (activeIfaces == null || activeIfaces.isEmpty())
@@ -115,7 +280,7 @@ public class MPCtrl {
 				continue;
 			}
 			try {
-				Cmd.runAsRoot("ip link set " + ifaceName + " down").wait();
+				Cmd.runAsRoot("ip link set " + ifaceName + " down");
 			} catch (Exception ignored) {}
 			try {
 				Cmd.runAsRoot("ip link set " + ifaceName + " up");
@@ -127,26 +292,48 @@ public class MPCtrl {
 	// in deep-sleep
 	private void initHandler() {
 		lastTimeHandler = System.currentTimeMillis();
+		mobileDataActiveDelay = Config.mobileDataActiveTime;
 
 		// First check
 		handler.post(runnableSetMobileDataActive);
 	}
 
+	/* After a change: run the next check soon, then back off again */
+	private void tightenMobileDataActive() {
+		if (mobileDataActiveDelay == Config.mobileDataActiveTime) {
+			return;
+		}
+
+		mobileDataActiveDelay = Config.mobileDataActiveTime;
+		handler.removeCallbacks(runnableSetMobileDataActive);
+		lastTimeHandler = System.currentTimeMillis();
+		handler.postDelayed(runnableSetMobileDataActive, mobileDataActiveDelay);
+	}
+
 	/*
 	 * Ensures that the data interface and WiFi are connected at the same time.
+	 * The delay between two checks doubles while the state does not change.
 	 */
 	private Runnable runnableSetMobileDataActive = new Runnable() {
 		@Override
 		public void run() {
 			long nowTime = System.currentTimeMillis();
+			boolean changed = false;
 			// do not try keep mobile data active in deep sleep mode
-			if (Config.mEnabled && nowTime - lastTimeHandler < Config.mobileDataActiveTime * 2) {
+			if (Config.mEnabled && nowTime - lastTimeHandler < mobileDataActiveDelay * 2) {
                 // to not disable cellular iface
-                mobileDataMgr.setMobileDataActive(Config.mEnabled);
+                changed = mobileDataMgr.setMobileDataActive(Config.mEnabled);
             }
 
+			if (changed) {
+				mobileDataActiveDelay = Config.mobileDataActiveTime;
+			} else {
+				mobileDataActiveDelay = Math.min(mobileDataActiveDelay * 2,
+						Config.mobileDataActiveMaxTime);
+			}
+
 			lastTimeHandler = nowTime;
-			handler.postDelayed(this, Config.mobileDataActiveTime);
+			handler.postDelayed(this, mobileDataActiveDelay);
 		}
 	};
 }
@@ -27,21 +27,51 @@ public class Config {
 
 	public static final String PREFS_NAME           = "MultipathControl";
 	private static final String PREFS_STATUS         = "enableMultiInterfaces";
+	private static final String PREFS_RECORD_TRACE   = "recordTrace";
+	/* names of the samples of older versions, moved to the StatsStore */
 	public static final String PREFS_STATS_SET      = "statsSet";
+	/* ... once they have all been copied: the prefs files can be deleted */
+	public static final String PREFS_STATS_MIGRATED = "statsMigrated";
 
-	public static boolean mEnabled;
+	/* written by the UI, read by the control thread */
+	public static volatile boolean mEnabled;
 
+	/* the HIPRI check is done every mobileDataActiveTime ms after a change... */
 	public static int mobileDataActiveTime = 5000;
+	/* ... then less and less often, up to this (ms), while nothing changes */
+	public static int mobileDataActiveMaxTime = 30000;
+
+	/* connectivity events closer than this (ms) are handled together */
+	public static int settleWindow = 300;
+	/* ... but not later than this (ms) after the first one */
+	public static int maxSettleDelay = 2000;
+
+	/* stats samples are appended to files of this size (bytes)... */
+	public static int statsSegmentSize = 256 * 1024;
+	/* ... and only the last ones are kept */
+	public static int statsMaxSegments = 64;
+	/* stats records waiting to be written, at most */
+	public static int statsQueueSize = 64;
+	/* a sample is saved without the fields still unknown after this (ms) */
+	public static int statsEnrichDeadline = 5000;
+
+	/*
+	 * record a trace of the interface and connectivity events, to replay it,
+	 * from the next start of the service
+	 */
+	public static volatile boolean recordTrace;
 
 	public static void getDefaultConfig(Context context) {
 		SharedPreferences settings = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
 		mEnabled = settings.getBoolean(PREFS_STATUS, true);
+		recordTrace = settings.getBoolean(PREFS_RECORD_TRACE, false);
 	}
 
 	public static void saveStatus(Context context) {
 		SharedPreferences settings = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
 		SharedPreferences.Editor editor = settings.edit();
 		editor.putBoolean(PREFS_STATUS, mEnabled);
+		editor.putBoolean(PREFS_RECORD_TRACE, recordTrace);
 		editor.apply();
 	}
 }
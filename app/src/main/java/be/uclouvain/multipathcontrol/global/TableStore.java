@@ -0,0 +1,63 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.global;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import be.uclouvain.multipathcontrol.system.TableAllocator;
+
+/**
+ * Routing tables assigned to the interfaces, in their own prefs file.
+ */
+public class TableStore implements TableAllocator.Store {
+
+	private static final String PREFS_NAME = "MultipathControlTables";
+
+	private final SharedPreferences settings;
+
+	public TableStore(Context context) {
+		settings = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+	}
+
+	@Override
+	public Map<String, Integer> load() {
+		Map<String, Integer> tables = new HashMap<>();
+		for (Map.Entry<String, ?> entry : settings.getAll().entrySet()) {
+			if (entry.getValue() instanceof Integer) {
+				tables.put(entry.getKey(), (Integer) entry.getValue());
+			}
+		}
+		return tables;
+	}
+
+	@Override
+	public void save(String iface, int table) {
+		settings.edit().putInt(iface, table).apply();
+	}
+
+	@Override
+	public void remove(String iface) {
+		settings.edit().remove(iface).apply();
+	}
+}
@@ -20,14 +20,21 @@
 
 package be.uclouvain.multipathcontrol.ifaces;
 
-import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.NetworkInfo.State;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.SystemClock;
+import be.uclouvain.multipathcontrol.stats.HandoverLatency;
+import be.uclouvain.multipathcontrol.system.HiddenApi;
 
 public class MobileDataMgr {
 
@@ -39,9 +46,54 @@ public class MobileDataMgr {
 	 * reserved by IANA, nobody will want to use it!
 	 */
 	private static final String DEFAULT_LOOKUP_HOST = "example.org";
+	/* give up waiting for HIPRI after this time (ms) and request the route */
+	private static final long HIPRI_TIMEOUT = 30000;
+	/* the address of DEFAULT_LOOKUP_HOST is resolved again after this (ms) */
+	private static final long LOOKUP_TTL = 10 * 60 * 1000;
+	/*
+	 * HIPRI is released by the system one minute after the last
+	 * startUsingNetworkFeature(): renew it before, even if nothing changed.
+	 * The cached Wi-Fi and Mobile Data states are refreshed at the same time.
+	 */
+	private static final long HIPRI_RENEW = 30000;
+
+	/* Everything below is only used on this handler's thread */
+	private final Handler handler;
+
+	private int hostAddress = -1;
+	private long hostResolvedAt = 0;
+	private boolean resolving = false;
+	private boolean waitingHipri = false;
+	/* the route has to be requested as soon as the lookup is done */
+	private boolean routeWanted = false;
 
-	public MobileDataMgr(Context context) {
+	/* last state given to the system, null if unknown */
+	private Boolean hipriActive = null;
+	private long hipriRequestedAt = 0;
+	/* cached system states, valid if statesCheckedAt != 0 */
+	private boolean wifiConnected;
+	private boolean mobileDataEnabled;
+	private long statesCheckedAt = 0;
+
+	private final BroadcastReceiver hipriReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if (isHipriConnected()) {
+				requestRoute();
+			}
+		}
+	};
+
+	private final Runnable hipriTimeout = new Runnable() {
+		@Override
+		public void run() {
+			requestRoute();
+		}
+	};
+
+	public MobileDataMgr(Context context, Handler handler) {
 		this.context = context;
+		this.handler = handler;
 	}
 
 	private boolean isWifiConnected() {
@@ -53,30 +105,51 @@ public class MobileDataMgr {
 
 	/* Check whether Mobile Data has been disabled in the System Preferences */
 	private boolean isMobileDataEnabled() {
-		boolean mobileDataEnabled = false;
 		ConnectivityManager cm = (ConnectivityManager) context
 				.getSystemService(Context.CONNECTIVITY_SERVICE);
-		try {
-            assert cm != null;
-            Class<?> cmClass = Class.forName(cm.getClass().getName());
-			Method method = cmClass.getDeclaredMethod("getMobileDataEnabled");
-			method.setAccessible(true);
-			mobileDataEnabled = (Boolean) method.invoke(cm);
-		} catch (Exception ignored) {}
-
-		return mobileDataEnabled;
+		return cm != null && HiddenApi.getMobileDataEnabled(cm, false);
+	}
+
+	/* The connectivity changed: the cached states have to be checked again */
+	public void invalidate() {
+		statesCheckedAt = 0;
 	}
 
-	/* Enable having WiFi and 3G/LTE enabled at the same time */
-	public void setMobileDataActive(boolean mEnabled) {
+	/*
+	 * Enable having WiFi and 3G/LTE enabled at the same time. No system call is
+	 * done if the cached states did not change and HIPRI does not need to be
+	 * renewed.
+	 *
+	 * @return true if HIPRI has been enabled or disabled
+	 */
+	public boolean setMobileDataActive(boolean mEnabled) {
+		long now = SystemClock.elapsedRealtime();
+		boolean renew = now - hipriRequestedAt >= HIPRI_RENEW;
+
+		if (statesCheckedAt == 0 || renew) {
+			wifiConnected = isWifiConnected();
+			mobileDataEnabled = isMobileDataEnabled();
+			statesCheckedAt = now;
+		}
+
+		boolean active = mobileDataEnabled && wifiConnected && mEnabled;
+		boolean changed = hipriActive == null || hipriActive != active;
+		if (!changed && !(active && renew)) {
+			return false;
+		}
+
 		ConnectivityManager cManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         assert cManager != null;
 
-		if (isMobileDataEnabled() && isWifiConnected() && mEnabled) {
+		if (active) {
             cManager.startUsingNetworkFeature(ConnectivityManager.TYPE_MOBILE, "enableHIPRI");
         } else {
             cManager.stopUsingNetworkFeature(ConnectivityManager.TYPE_MOBILE, "enableHIPRI");
         }
+		hipriActive = active;
+		hipriRequestedAt = now;
+
+		return changed;
 	}
 
 	private static int getAddr(InetAddress inetAddress) {
@@ -102,30 +175,103 @@ public class MobileDataMgr {
 		return getAddr(inetAddress);
 	}
 
-	public void keepMobileConnectionAlive() {
+	/* Resolve DEFAULT_LOOKUP_HOST in the background if the cache is stale */
+	private void refreshHostAddress() {
+		if (resolving || hostAddress != -1
+				&& SystemClock.elapsedRealtime() - hostResolvedAt < LOOKUP_TTL) {
+			return;
+		}
+
+		resolving = true;
+		AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				final int address = lookupHost(DEFAULT_LOOKUP_HOST);
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						resolving = false;
+						// keep the previous address if the lookup failed
+						if (address != -1) {
+							hostAddress = address;
+							hostResolvedAt = SystemClock.elapsedRealtime();
+						}
+						if (routeWanted || waitingHipri && isHipriConnected()) {
+							requestRoute();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private boolean isHipriConnected() {
 		ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
 		if (null == connectivityManager) {
-			return;
+			return false;
 		}
 
-		// create a route for the specified address
-		int hostAddress = lookupHost(DEFAULT_LOOKUP_HOST);
-		if (-1 == hostAddress) {
+		NetworkInfo hipri = connectivityManager.getNetworkInfo(ConnectivityManager.TYPE_MOBILE_HIPRI);
+		return hipri != null && hipri.getState() == State.CONNECTED;
+	}
+
+	private void stopWaiting() {
+		if (!waitingHipri) {
 			return;
 		}
-		// wait some time needed to connection manager for waking up
+
+		waitingHipri = false;
+		handler.removeCallbacks(hipriTimeout);
 		try {
-			for (int counter = 0; counter < 30; counter++) {
-				State checkState = connectivityManager.getNetworkInfo(ConnectivityManager.TYPE_MOBILE_HIPRI).getState();
+			context.unregisterReceiver(hipriReceiver);
+		} catch (IllegalArgumentException ignored) {}
+	}
 
-				if (0 == checkState.compareTo(State.CONNECTED)) {
-					break;
-				}
+	/* HIPRI is up (or we waited long enough): create the route if we can */
+	private void requestRoute() {
+		stopWaiting();
 
-				Thread.sleep(1000);
-			}
-		} catch (InterruptedException ignored) {}
+		if (hostAddress == -1) {
+			// the lookup will call us back, if any
+			routeWanted = resolving;
+			return;
+		}
+		routeWanted = false;
+
+		ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		if (null != connectivityManager) {
+			connectivityManager.requestRouteToHost(ConnectivityManager.TYPE_MOBILE_HIPRI, hostAddress);
+			HandoverLatency.getInstance().mark(HandoverLatency.Stage.HIPRI,
+					HandoverLatency.Network.MOBILE);
+		}
+	}
+
+	/*
+	 * Create a route for DEFAULT_LOOKUP_HOST via HIPRI as soon as it is
+	 * connected, without blocking the caller. Must be called on the handler's
+	 * thread.
+	 */
+	public void keepMobileConnectionAlive() {
+		refreshHostAddress();
+
+		if (isHipriConnected()) {
+			requestRoute();
+			return;
+		}
+
+		// wait some time needed to connection manager for waking up
+		if (!waitingHipri) {
+			waitingHipri = true;
+			context.registerReceiver(hipriReceiver,
+					new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION), null, handler);
+		}
+		handler.removeCallbacks(hipriTimeout);
+		handler.postDelayed(hipriTimeout, HIPRI_TIMEOUT);
+	}
 
-		connectivityManager.requestRouteToHost(ConnectivityManager.TYPE_MOBILE_HIPRI, hostAddress);
+	/* Stop waiting for HIPRI. Must be called on the handler's thread. */
+	public void stop() {
+		stopWaiting();
+		routeWanted = false;
 	}
 }
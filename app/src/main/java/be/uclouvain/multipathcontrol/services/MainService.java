@@ -20,12 +20,19 @@
 
 package be.uclouvain.multipathcontrol.services;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
 import android.widget.Toast;
 import be.uclouvain.multipathcontrol.MPCtrl;
+import be.uclouvain.multipathcontrol.global.Config;
 import be.uclouvain.multipathcontrol.global.Manager;
+import be.uclouvain.multipathcontrol.stats.HandoverLatency;
+import be.uclouvain.multipathcontrol.stats.StatsStore;
+import be.uclouvain.multipathcontrol.system.HiddenApi;
 
 public class MainService extends Service {
 
@@ -45,6 +52,24 @@ public class MainService extends Service {
 		}
 	}
 
+	/*
+	 * adb shell dumpsys activity service be.uclouvain.multipathcontrol
+	 * With "trace on" or "trace off": records the events from the next start.
+	 */
+	@Override
+	protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+		if (args != null && args.length == 2 && args[0].equals("trace")) {
+			Config.recordTrace = args[1].equals("on");
+			Config.saveStatus(this);
+			writer.println("Trace recording " + (Config.recordTrace ? "on" : "off")
+					+ " from the next start of the service");
+			return;
+		}
+		HandoverLatency.getInstance().dump(writer);
+		StatsStore.dump(writer);
+		HiddenApi.dump(writer);
+	}
+
 	public void onDestroy() {
 		super.onDestroy();
 		if (mpctrl != null) {
@@ -23,31 +23,32 @@ package be.uclouvain.multipathcontrol.stats;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.concurrent.Callable;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 
-import android.content.SharedPreferences.Editor;
-import android.os.AsyncTask;
-
-public class GetIPTask extends AsyncTask<String, Void, String> {
+/**
+ * Gets the external IP from the stats server, in the background: null if
+ * unknown. Its value is added to the sample by the StatsEnricher.
+ */
+public class GetIPTask implements Callable<String> {
 
-	private final Editor editor;
+	private final String path;
 
-	GetIPTask(Editor editor) {
-		super();
-		this.editor = editor;
+	GetIPTask(String path) {
+		this.path = path;
 	}
 
 	@Override
-	protected String doInBackground(String... arg0) {
+	public String call() {
 		HttpClient httpClient = HttpUtils.getHttpClient(1000);
 		if (httpClient == null) {
 			return null;
 		}
 
-		HttpGet httpGet = new HttpGet(HttpUtils.BASEURI + '/' + arg0[0]);
+		HttpGet httpGet = new HttpGet(HttpUtils.BASEURI + '/' + path);
 		BufferedReader bReader = null;
 		String line = null;
 		try {
@@ -65,13 +66,6 @@ public class GetIPTask extends AsyncTask<String, Void, String> {
 				ex.printStackTrace();
 			}
 		}
-		return line;
-	}
-
-	protected void onPostExecute(String ip) {
-		if (ip != null && !ip.isEmpty()) {
-			editor.putString(SaveDataHandover.PREFS_EXT_IP, ip);
-			editor.commit();
-		}
+		return line == null || line.isEmpty() ? null : line;
 	}
 }
@@ -20,12 +20,13 @@
 
 package be.uclouvain.multipathcontrol.stats;
 
-import java.lang.reflect.Method;
-
 import android.telephony.PhoneStateListener;
 import android.telephony.ServiceState;
 import android.telephony.SignalStrength;
 import android.telephony.TelephonyManager;
+import be.uclouvain.multipathcontrol.system.HiddenApi;
+import be.uclouvain.multipathcontrol.trace.TraceRecord;
+import be.uclouvain.multipathcontrol.trace.TraceRecorder;
 
 public class PhoneState {
 
@@ -234,12 +235,7 @@ public class PhoneState {
 			return SIGNAL_STRENGTH_NONE_OR_UNKNOWN;
 		}
 
-		try {
-			Method methodGetLteLevel = SignalStrength.class.getMethod("getLteLevel");
-			return (Integer) methodGetLteLevel.invoke(signalStrength);
-		} catch (Throwable t) {
-			return SIGNAL_STRENGTH_NONE_OR_UNKNOWN;
-		}
+		return HiddenApi.getLteLevel(signalStrength, SIGNAL_STRENGTH_NONE_OR_UNKNOWN);
 	}
 
 	private static int getLteDbm(SignalStrength signalStrength) {
@@ -247,12 +243,7 @@ public class PhoneState {
 		// method
 		// in the SignalStrength class returns a private field which is not
 		// accessible in any public, non-hidden methods.
-		try {
-			Method methodGetLteDbm = SignalStrength.class.getMethod("getLteDbm");
-			return (Integer) methodGetLteDbm.invoke(signalStrength);
-		} catch (Throwable t) {
-			return SIGNAL_STRENGTH_NONE_OR_UNKNOWN;
-		}
+		return HiddenApi.getLteDbm(signalStrength, SIGNAL_STRENGTH_NONE_OR_UNKNOWN);
 	}
 
 	private final PhoneStateListener phoneStateListener = new PhoneStateListener() {
@@ -261,6 +252,8 @@ public class PhoneState {
 			lastSignalStrength = getLevel(signalStrength);
 			lastSignalStrengthDbm = getDbm(telephonyManager, signalStrength);
 			lastBer = signalStrength.getGsmBitErrorRate();
+			TraceRecorder.getInstance().record(TraceRecord.Type.SIGNAL,
+					lastSignalStrength + " " + lastSignalStrengthDbm);
 		}
 
 		@Override
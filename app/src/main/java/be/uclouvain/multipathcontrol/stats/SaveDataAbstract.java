@@ -21,44 +21,42 @@
 package be.uclouvain.multipathcontrol.stats;
 
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
-import be.uclouvain.multipathcontrol.global.Config;
 
 /**
  * The goal of this abstract class is to define a new environment to save data.
  *
- * Simply extends this class and put new data via the editor.
- *
- * The name of the new prefs will be stored in Config.PREFS_STATS_SET_category
+ * Simply extends this class and put new data in the record, slow data in
+ * the pending record: it is appended to the StatsStore (files/stats/) once
+ * saved and the slow data is known, or too late.
  */
 abstract class SaveDataAbstract {
 	private static final String PREFS_TIMESTAMP = "timestamp";
 	private static final String PREFS_WIFI_MAC = "wifiMac";
 
 	private static String wifiMac = null;
-	private static final Lock mutex = new ReentrantLock(true);
-
-	Editor editor;
 
-    SaveDataAbstract(Context context, StatsCategories category) {
+	final StatsRecord record;
+	/* null if the files cannot be opened: the sample is lost */
+	final StatsStore store;
+	/*
+	 * fields computed in the background, null if the sample is lost: the
+	 * subclasses should not collect anything then
+	 */
+	final StatsEnricher.Pending pending;
+
+	/* @param priority LOW samples are dropped first when overloaded */
+    SaveDataAbstract(Context context, StatsCategories category, StatsWriter.Priority priority) {
         long timestamp = new Date().getTime();
 
-		String sharedPrefName = Long.toString(timestamp);
-		this.editor = context.getSharedPreferences(sharedPrefName, Context.MODE_PRIVATE).edit();
-		editor.putLong(PREFS_TIMESTAMP, timestamp);
-		editor.putString(PREFS_WIFI_MAC, getWiFiMac(context));
-
-		SharedPreferences settings = context.getSharedPreferences(Config.PREFS_NAME, Context.MODE_PRIVATE);
-		addPrefToList(settings, sharedPrefName, category);
+		this.store = StatsStore.getInstance(context);
+		this.record = new StatsRecord(category, timestamp);
+		record.putLong(PREFS_TIMESTAMP, timestamp);
+		record.putString(PREFS_WIFI_MAC, getWiFiMac(context));
+		this.pending = store == null ? null : store.begin(record, priority);
 	}
 
 	private static String getWiFiMac(Context context) {
@@ -74,26 +72,13 @@ abstract class SaveDataAbstract {
 		return wifiMac;
 	}
 
-	private void addPrefToList(SharedPreferences settings, String sharedPrefName, StatsCategories category) {
-        String key = Config.PREFS_STATS_SET + '_' + category;
-		mutex.lock();
-
-		Set<String> statsSet = settings.getStringSet(key, null);
-
-		if (statsSet == null) {
-			statsSet = new HashSet<>(1);
-		} else {
-			// We need a copy: see doc about SharedPreferences.getStringSet()
-			statsSet = new HashSet<>(statsSet);
-		}
-
-		statsSet.add(sharedPrefName);
-		settings.edit().putStringSet(key, statsSet).apply();
-
-		mutex.unlock();
-	}
-
+	/*
+	 * Written by the StatsWriter thread once the pending fields are known,
+	 * dropped if it is overloaded. The record must not be changed after.
+	 */
 	void save() {
-		editor.commit();
+		if (pending != null) {
+			pending.seal();
+		}
 	}
 }
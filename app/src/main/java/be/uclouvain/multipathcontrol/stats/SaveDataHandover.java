@@ -23,9 +23,6 @@
 
 package be.uclouvain.multipathcontrol.stats;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
@@ -46,6 +43,7 @@ import android.telephony.gsm.GsmCellLocation;
 
 import be.uclouvain.multipathcontrol.system.Cmd;
 import be.uclouvain.multipathcontrol.system.IPRouteUtils;
+import be.uclouvain.multipathcontrol.system.ProcFile;
 
 public class SaveDataHandover extends SaveDataAbstract {
 
@@ -83,6 +81,7 @@ public class SaveDataHandover extends SaveDataAbstract {
 	private static final String PREFS_WIFI_SPEED        = "wifiSpeed";
 	private static final String PREFS_WIFI_SSID         = "wifiSSID";
 	private static final String PREFS_WIFI_STATE        = "wifiState";
+	private static final String PREFS_MERGED_EVENTS     = "mergedEvents";
 	public static final String PREFS_EXT_IP            = "extIp";
 
 	private static ConnectivityManager connectivityManager = null;
@@ -110,7 +109,17 @@ public class SaveDataHandover extends SaveDataAbstract {
 	}
 
 	public SaveDataHandover(Context context) {
-		super(context, StatsCategories.HANDOVER);
+		this(context, 1);
+	}
+
+	/* @param mergedEvents number of connectivity events leading to this sample */
+	public SaveDataHandover(Context context, int mergedEvents) {
+		super(context, StatsCategories.HANDOVER, StatsWriter.Priority.HIGH);
+		// dropped: not worth forking netstat for it
+		if (pending == null) {
+			return;
+		}
+		record.putInt(PREFS_MERGED_EVENTS, mergedEvents);
 
 		getStaticVarsSync(context);
 
@@ -127,6 +136,8 @@ public class SaveDataHandover extends SaveDataAbstract {
 
 		fromSettings(context);
 
+		HandoverLatency.getInstance().putTo(record);
+
 		save();
 	}
 
@@ -144,19 +155,19 @@ public class SaveDataHandover extends SaveDataAbstract {
 			networkType += "/" + networkSubType;
 		}
 
-		editor.putString(PREFS_NETWORK_TYPE, networkType);
-		editor.putBoolean(PREFS_NETWORK_ROAMING, activeNetworkInfo.isRoaming());
-		editor.putBoolean(PREFS_NETWORK_AVAILABLE, activeNetworkInfo.isAvailable());
-		editor.putBoolean(PREFS_NETWORK_CONNECTED, activeNetworkInfo.isConnected());
-		editor.putBoolean(PREFS_NETWORK_FAILOVER, activeNetworkInfo.isFailover());
-		editor.putString(PREFS_NETWORK_DSTATE, activeNetworkInfo.getDetailedState().toString());
+		record.putString(PREFS_NETWORK_TYPE, networkType);
+		record.putBoolean(PREFS_NETWORK_ROAMING, activeNetworkInfo.isRoaming());
+		record.putBoolean(PREFS_NETWORK_AVAILABLE, activeNetworkInfo.isAvailable());
+		record.putBoolean(PREFS_NETWORK_CONNECTED, activeNetworkInfo.isConnected());
+		record.putBoolean(PREFS_NETWORK_FAILOVER, activeNetworkInfo.isFailover());
+		record.putString(PREFS_NETWORK_DSTATE, activeNetworkInfo.getDetailedState().toString());
 
 		String reason = activeNetworkInfo.getReason();
 		if (reason != null && !reason.isEmpty()) {
-			editor.putString(PREFS_NETWORK_REASON, reason);
+			record.putString(PREFS_NETWORK_REASON, reason);
 		}
 
-		editor.putString(PREFS_NETWORK_EXTRAS, activeNetworkInfo.getExtraInfo());
+		record.putString(PREFS_NETWORK_EXTRAS, activeNetworkInfo.getExtraInfo());
 	}
 
 	// Src:
@@ -174,16 +185,16 @@ public class SaveDataHandover extends SaveDataAbstract {
 			int shortCid = cid > 0 ? cid & 0xFFFF : cid;
 			int rnc = cid > 0 ? cid >> 16 & 0xFFFF : 0;
 
-			editor.putInt(PREFS_GSM_FULL_CELL_ID, cid);
+			record.putInt(PREFS_GSM_FULL_CELL_ID, cid);
 			if (rnc > 0) {
-				editor.putInt(PREFS_GSM_RNC, rnc);
+				record.putInt(PREFS_GSM_RNC, rnc);
 			}
 
-			editor.putInt(PREFS_GSM_SHORT_CELL_ID, shortCid);
-			editor.putInt(PREFS_GSM_CELL_LAC, gsmCellLocation.getLac());
+			record.putInt(PREFS_GSM_SHORT_CELL_ID, shortCid);
+			record.putInt(PREFS_GSM_CELL_LAC, gsmCellLocation.getLac());
 		}
 
-		editor.putString(PREFS_SIM_OPERATOR, telephonyManager.getNetworkOperatorName());
+		record.putString(PREFS_SIM_OPERATOR, telephonyManager.getNetworkOperatorName());
 	}
 
 	// Src:
@@ -194,22 +205,22 @@ public class SaveDataHandover extends SaveDataAbstract {
 			return;
 		}
 
-		editor.putString(PREFS_WIFI_SSID, connectionInfo.getSSID());
+		record.putString(PREFS_WIFI_SSID, connectionInfo.getSSID());
 
 		String bssid = connectionInfo.getBSSID();
-		editor.putString(PREFS_WIFI_BSSID, bssid);
+		record.putString(PREFS_WIFI_BSSID, bssid);
 
 		int signalLevel = WifiManager.calculateSignalLevel(connectionInfo.getRssi(), 5);
-		editor.putInt(PREFS_WIFI_SIGNAL_4, signalLevel);
-		editor.putInt(PREFS_WIFI_SIGNAL_RSSI, connectionInfo.getRssi());
-		editor.putInt(PREFS_WIFI_SPEED, connectionInfo.getLinkSpeed());
-		editor.putString(PREFS_WIFI_STATE, getWifiState());
+		record.putInt(PREFS_WIFI_SIGNAL_4, signalLevel);
+		record.putInt(PREFS_WIFI_SIGNAL_RSSI, connectionInfo.getRssi());
+		record.putInt(PREFS_WIFI_SPEED, connectionInfo.getLinkSpeed());
+		record.putString(PREFS_WIFI_STATE, getWifiState());
 
 		List<ScanResult> scanResults = wifiManager.getScanResults();
 		if (scanResults != null) {
 			for (ScanResult scanResult : scanResults) {
 				if (scanResult.BSSID != null && scanResult.BSSID.equals(bssid)) {
-					editor.putInt(PREFS_WIFI_FREQ, scanResult.frequency);
+					record.putInt(PREFS_WIFI_FREQ, scanResult.frequency);
 					break;
 				}
 			}
@@ -236,20 +247,20 @@ public class SaveDataHandover extends SaveDataAbstract {
 	}
 
 	private void fromPhoneState() {
-		editor.putString(PREFS_CELL_TYPE, phoneState.getNetworkType());
-		editor.putString(PREFS_SIM_STATE, phoneState.getSimState());
-		editor.putString(PREFS_DATA_STATE, phoneState.getDataState());
-		editor.putString(PREFS_DATA_ACTIVITY, phoneState.getDataActivity());
-		editor.putInt(PREFS_CELL_SIGNAL_4, phoneState.getLastSignalStrength());
+		record.putString(PREFS_CELL_TYPE, phoneState.getNetworkType());
+		record.putString(PREFS_SIM_STATE, phoneState.getSimState());
+		record.putString(PREFS_DATA_STATE, phoneState.getDataState());
+		record.putString(PREFS_DATA_ACTIVITY, phoneState.getDataActivity());
+		record.putInt(PREFS_CELL_SIGNAL_4, phoneState.getLastSignalStrength());
 
 		int dBm = phoneState.getLastSignalStrengthDbm();
 		if (dBm != 0) {
-			editor.putInt(PREFS_CELL_SIGNAL_DBM, dBm);
+			record.putInt(PREFS_CELL_SIGNAL_DBM, dBm);
 		}
 
 		int lastBer = phoneState.getLastBer();
 		if (lastBer >= 0 && lastBer <= 7 || lastBer == 99) {
-			editor.putInt(PREFS_CELL_BER, lastBer);
+			record.putInt(PREFS_CELL_BER, lastBer);
 		}
 	}
 
@@ -285,55 +296,31 @@ public class SaveDataHandover extends SaveDataAbstract {
 		}
 
 		if (ifacesNames.length() > 0) {
-            editor.putString(PREFS_IFACES, ifacesNames.substring(1));
+            record.putString(PREFS_IFACES, ifacesNames.substring(1));
         }
 
 		if (ipv4WiFi.length() > 0) {
-            editor.putString(PREFS_IP_WIFI_V4, ipv4WiFi.substring(1));
+            record.putString(PREFS_IP_WIFI_V4, ipv4WiFi.substring(1));
         }
 
 		if (ipv4RMNet.length() > 0) {
-            editor.putString(PREFS_IP_RMNET_V4, ipv4RMNet.substring(1));
+            record.putString(PREFS_IP_RMNET_V4, ipv4RMNet.substring(1));
         }
 	}
 
 	private void fromSystem() {
-		editor.putString(PREFS_NETSTAT, Cmd.getAllLinesString("netstat", ';').replaceAll("\\s+", " "));
-		editor.putString(PREFS_PROC_MPTCP, getFileContent("/proc/net/mptcp").replaceAll("\\s+", " "));
-		editor.putString(PREFS_PROC_MPTCP_FM, getFileContent("/proc/net/mptcp_fullmesh"));
-	}
-
-	private static String getFileContent(String path) {
-		StringBuilder sBuffer = new StringBuilder();
-		BufferedReader bReader = null;
-		String line;
-		try {
-			bReader = new BufferedReader(new FileReader(path));
-			while ((line = bReader.readLine()) != null) {
-				sBuffer.append(line);
-				sBuffer.append(';');
-			}
-		} catch (IOException ignored) {}
-		finally {
-			try {
-				if (bReader != null) {
-                    bReader.close();
-                }
-			} catch (IOException ex) {
-				ex.printStackTrace();
-			}
-		}
-
-		return sBuffer.toString();
+		record.putString(PREFS_NETSTAT, ProcFile.squeeze(Cmd.getAllLinesString("netstat", ';')));
+		record.putString(PREFS_PROC_MPTCP, ProcFile.squeeze(ProcFile.readJoined("/proc/net/mptcp", ';')));
+		record.putString(PREFS_PROC_MPTCP_FM, ProcFile.readJoined("/proc/net/mptcp_fullmesh", ';'));
 	}
 
 	private void fromNetAsync() {
-		new GetIPTask(editor).execute("myip");
+		pending.addString(PREFS_EXT_IP, new GetIPTask("myip"));
 	}
 
 	private void fromSettings(Context context) {
 		try {
-			editor.putBoolean(PREFS_AIRPLANE, Settings.Global.getInt(context.getContentResolver(), Settings.Global.AIRPLANE_MODE_ON) == 1);
+			record.putBoolean(PREFS_AIRPLANE, Settings.Global.getInt(context.getContentResolver(), Settings.Global.AIRPLANE_MODE_ON) == 1);
 		} catch (SettingNotFoundException ignored) {}
 	}
 }
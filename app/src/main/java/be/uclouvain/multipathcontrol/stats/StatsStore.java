@@ -0,0 +1,385 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.util.Xml;
+import be.uclouvain.multipathcontrol.global.Config;
+import be.uclouvain.multipathcontrol.system.Clock;
+
+/**
+ * The stats samples, in files/stats/: their records in a SegmentedLog,
+ * encoded by StatsCodec, and for each category a SampleIndex of their
+ * timestamps and positions.
+ *
+ * Records are given to begin() and written by a StatsWriter thread, once
+ * the fields computed in the background are known.
+ */
+public class StatsStore {
+
+	public interface Visitor {
+		/* @return false to stop reading */
+		boolean visit(StatsRecord record);
+	}
+
+	private static final String DIR = "stats";
+	private static final String INDEX_SUFFIX = ".idx";
+	/* 16 bytes per entry: at most 1 MiB per category */
+	private static final long MAX_INDEX_ENTRIES = 65536;
+	/* a record is decoded from its keyframe: at most this number of records */
+	private static final int KEYFRAME_INTERVAL = 64;
+
+	private static StatsStore instance = null;
+
+	private final SegmentedLog log;
+	private final Map<StatsCategories, SampleIndex> indexes = new EnumMap<>(StatsCategories.class);
+	private final StatsCodec.Encoder encoder = new StatsCodec.Encoder(KEYFRAME_INTERVAL);
+	private final StatsWriter writer;
+	private final StatsEnricher enricher;
+
+	/* @return null if the files cannot be opened */
+	public static synchronized StatsStore getInstance(Context context) {
+		if (instance == null) {
+			try {
+				instance = new StatsStore(context);
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		return instance;
+	}
+
+	private StatsStore(Context context) throws IOException {
+		File dir = new File(context.getFilesDir(), DIR);
+		log = new SegmentedLog(dir, Config.statsSegmentSize, Config.statsMaxSegments);
+
+		List<StatsCategories> missing = new ArrayList<>();
+		for (StatsCategories category : StatsCategories.values()) {
+			File file = new File(dir, category + INDEX_SUFFIX);
+			if (!file.exists()) {
+				missing.add(category);
+			}
+			indexes.put(category, new SampleIndex(file, MAX_INDEX_ENTRIES));
+		}
+
+		// older versions: samples in the log but not indexed, or in prefs files
+		if (!missing.isEmpty() && !log.isEmpty()) {
+			rebuildIndexes(missing);
+		}
+		try {
+			migratePrefs(context);
+		} catch (IOException ignored) {
+			// not marked as done: resumed at the next start
+		}
+
+		writer = new StatsWriter(new StatsWriter.Sink() {
+			@Override
+			public void write(StatsRecord record) throws IOException {
+				save(record);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				sync();
+			}
+		}, Clock.SYSTEM, Config.statsQueueSize);
+		enricher = new StatsEnricher(AsyncTask.THREAD_POOL_EXECUTOR);
+	}
+
+	/* Metrics of the writer, if the store is open */
+	public static void dump(PrintWriter printWriter) {
+		StatsStore store;
+		synchronized (StatsStore.class) {
+			store = instance;
+		}
+		if (store != null) {
+			store.writer.dump(printWriter);
+			store.enricher.dump(printWriter);
+		}
+	}
+
+	private void rebuildIndexes(final List<StatsCategories> categories) throws IOException {
+		final StatsCodec.Decoder decoder = new StatsCodec.Decoder();
+		log.read(Long.MIN_VALUE, Long.MAX_VALUE, new SegmentedLog.Visitor() {
+			@Override
+			public boolean visit(long position, long timestamp, byte[] data) {
+				try {
+					StatsCategories category = decoder.decode(data).getCategory();
+					if (categories.contains(category)) {
+						indexes.get(category).append(timestamp, position);
+					}
+				} catch (IOException ignored) {}
+				return true;
+			}
+		});
+	}
+
+	/*
+	 * The names of the samples used to be kept in a set, in the prefs of
+	 * Config, and each sample in its own prefs file. These samples are copied
+	 * to the log, then the migration is marked as done and only then the
+	 * files are deleted: an interrupted copy is resumed, an interrupted
+	 * cleanup is finished, at the next start.
+	 */
+	private void migratePrefs(Context context) throws IOException {
+		SharedPreferences settings = context.getSharedPreferences(Config.PREFS_NAME, Context.MODE_PRIVATE);
+		File prefsDir = new File(context.getApplicationInfo().dataDir, "shared_prefs");
+
+		if (!settings.getBoolean(Config.PREFS_STATS_MIGRATED, false)) {
+			for (StatsCategories category : StatsCategories.values()) {
+				Set<String> names = settings.getStringSet(Config.PREFS_STATS_SET + '_' + category, null);
+				if (names != null) {
+					importPrefsFiles(prefsDir, category, names);
+				}
+			}
+			// the copies must be on the disk before the files are deleted
+			sync();
+			if (!settings.edit().putBoolean(Config.PREFS_STATS_MIGRATED, true).commit()) {
+				throw new IOException("Cannot mark the stats as migrated");
+			}
+		}
+
+		for (StatsCategories category : StatsCategories.values()) {
+			String key = Config.PREFS_STATS_SET + '_' + category;
+			Set<String> names = settings.getStringSet(key, null);
+			if (names == null) {
+				continue;
+			}
+			for (String name : names) {
+				new File(prefsDir, name + ".xml").delete();
+			}
+			settings.edit().remove(key).commit();
+		}
+	}
+
+	/*
+	 * Oldest first, after the last sample of the index: the samples copied by
+	 * an interrupted migration are not copied twice.
+	 */
+	private void importPrefsFiles(File prefsDir, StatsCategories category, Set<String> names)
+			throws IOException {
+		List<Long> timestamps = new ArrayList<>(names.size());
+		for (String name : names) {
+			try {
+				timestamps.add(Long.parseLong(name));
+			} catch (NumberFormatException ignored) {}
+		}
+		Collections.sort(timestamps);
+
+		long last = indexes.get(category).getLastTimestamp();
+		for (long timestamp : timestamps) {
+			File file = new File(prefsDir, timestamp + ".xml");
+			if (timestamp <= last || !file.exists()) {
+				continue;
+			}
+
+			StatsRecord record;
+			try {
+				record = readPrefsFile(file, category, timestamp);
+			} catch (IOException | XmlPullParserException e) {
+				// it will not be readable the next time either
+				continue;
+			}
+			save(record);
+		}
+	}
+
+	/* Parsed without SharedPreferences: each instance would be kept in memory */
+	private static StatsRecord readPrefsFile(File file, StatsCategories category, long timestamp)
+			throws IOException, XmlPullParserException {
+		StatsRecord record = new StatsRecord(category, timestamp);
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			XmlPullParser parser = Xml.newPullParser();
+			parser.setInput(in, "UTF-8");
+			int event;
+			while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				if (event != XmlPullParser.START_TAG) {
+					continue;
+				}
+				String tag = parser.getName();
+				String name = parser.getAttributeValue(null, "name");
+				String value = parser.getAttributeValue(null, "value");
+				if (name == null) {
+					continue;
+				}
+				try {
+					if (tag.equals("string")) {
+						record.putString(name, parser.nextText());
+					} else if (tag.equals("int")) {
+						record.putInt(name, Integer.parseInt(value));
+					} else if (tag.equals("long")) {
+						record.putLong(name, Long.parseLong(value));
+					} else if (tag.equals("boolean")) {
+						record.putBoolean(name, Boolean.parseBoolean(value));
+					}
+				} catch (NumberFormatException ignored) {}
+			}
+		} finally {
+			in.close();
+		}
+		return record;
+	}
+
+	/*
+	 * The record will be written when the fields added to the returned
+	 * Pending are known, after its seal(), or at the latest
+	 * Config.statsEnrichDeadline ms from now without the missing ones (sooner
+	 * if the records behind it fill half of the writer queue). The
+	 * records are written in the order of their begin(): by timestamp.
+	 *
+	 * @param priority LOW records are dropped first when overloaded
+	 * @return null if the record has been dropped: the writer is overloaded,
+	 *         this never waits
+	 */
+	public StatsEnricher.Pending begin(StatsRecord record, StatsWriter.Priority priority) {
+		// a slow field holds the records behind it: do not wait for it
+		if (writer.isStalled()) {
+			enricher.expireAll();
+		}
+		StatsWriter.Slot slot = writer.reserve(record, priority);
+		if (slot == null) {
+			return null;
+		}
+		return enricher.begin(record, slot, Config.statsEnrichDeadline);
+	}
+
+	/*
+	 * Waits for the records submitted before, at most timeout ms. The fields
+	 * still missing are not waited for.
+	 */
+	public boolean awaitWritten(long timeout) {
+		enricher.expireAll();
+		try {
+			return writer.awaitIdle(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/* The log first: an index entry must not point to a lost record */
+	private synchronized void sync() throws IOException {
+		log.sync();
+		for (SampleIndex index : indexes.values()) {
+			index.sync();
+		}
+	}
+
+	/* Written now, on this thread: use begin() */
+	synchronized void save(StatsRecord record) throws IOException {
+		byte[] data = encoder.encode(record, SegmentedLog.HEADER);
+		// a chain never spans two segments: each one can be read alone
+		if (!StatsCodec.isKeyframe(data) && !log.fits(data.length)) {
+			encoder.reset();
+			data = encoder.encode(record, SegmentedLog.HEADER);
+		}
+
+		long position;
+		try {
+			position = log.append(record.getTimestamp(), data);
+		} catch (IOException e) {
+			// the next record cannot refer to this one
+			encoder.reset();
+			throw e;
+		}
+		indexes.get(record.getCategory()).append(record.getTimestamp(), position);
+	}
+
+	/*
+	 * @param next position after the last record decoded by the decoder
+	 * @return the record at this position, null if removed
+	 */
+	private StatsRecord decodeAt(final StatsCodec.Decoder decoder, long[] next, final long position)
+			throws IOException {
+		byte[] data = log.readAt(position);
+		if (data == null) {
+			return null;
+		}
+
+		if (position != next[0] && !StatsCodec.isKeyframe(data)) {
+			decoder.reset();
+			long keyframe = position - StatsCodec.getKeyframeDistance(data);
+			log.readFrom(keyframe, new SegmentedLog.Visitor() {
+				@Override
+				public boolean visit(long p, long timestamp, byte[] previous) {
+					if (p >= position) {
+						return false;
+					}
+					try {
+						decoder.decode(previous);
+						return true;
+					} catch (IOException e) {
+						return false;
+					}
+				}
+			});
+		}
+
+		StatsRecord record = decoder.decode(data);
+		next[0] = position + SegmentedLog.HEADER + data.length;
+		return record;
+	}
+
+	/*
+	 * Visits the records of a category from 'from' to 'to' (included), oldest
+	 * first. The records of samples removed from the log are skipped.
+	 */
+	public synchronized void read(StatsCategories category, long from, long to, final Visitor visitor)
+			throws IOException {
+		final StatsCodec.Decoder decoder = new StatsCodec.Decoder();
+		final long[] next = { -1 };
+		final IOException[] error = new IOException[1];
+		indexes.get(category).read(from, to, new SampleIndex.Visitor() {
+			@Override
+			public boolean visit(long timestamp, long position) {
+				try {
+					StatsRecord record = decodeAt(decoder, next, position);
+					return record == null || visitor.visit(record);
+				} catch (IOException e) {
+					error[0] = e;
+					return false;
+				}
+			}
+		});
+		if (error[0] != null) {
+			throw error[0];
+		}
+	}
+}
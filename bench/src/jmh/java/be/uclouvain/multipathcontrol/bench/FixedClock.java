@@ -0,0 +1,37 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.bench;
+
+import be.uclouvain.multipathcontrol.system.Clock;
+
+/* Time does not move: cached entries never expire */
+class FixedClock implements Clock {
+
+	@Override
+	public long currentTimeMillis() {
+		return 0;
+	}
+
+	@Override
+	public long nanoTime() {
+		return 0;
+	}
+}
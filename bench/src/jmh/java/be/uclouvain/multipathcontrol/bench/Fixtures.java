@@ -0,0 +1,151 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.bench;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import be.uclouvain.multipathcontrol.ifaces.Iface;
+import be.uclouvain.multipathcontrol.stats.StatsCategories;
+import be.uclouvain.multipathcontrol.stats.StatsRecord;
+
+/**
+ * Inputs of the benchmarks, sized like a busy phone: hundreds of rules,
+ * thousands of connections. Always generated with the same seed.
+ */
+final class Fixtures {
+
+	private Fixtures() {}
+
+	/* "ip rule show" with the default rules and nbRules rules in nbTables tables */
+	static List<String> ruleDump(int nbRules, int nbTables) {
+		List<String> lines = new ArrayList<>(nbRules + 3);
+		lines.add("0:\tfrom all lookup local ");
+		for (int i = 0; i < nbRules; i++) {
+			int prio = 32765 - nbRules + i;
+			lines.add(prio + ":\tfrom 10." + (i >> 8 & 0xff) + "." + (i & 0xff) + ".1 lookup "
+					+ (1000 + i % nbTables) + " ");
+		}
+		lines.add("32766:\tfrom all lookup main ");
+		lines.add("32767:\tfrom all lookup default ");
+		return lines;
+	}
+
+	/* /proc/net/mptcp with nbConnections established connections */
+	static List<String> procMptcp(int nbConnections) {
+		Random random = new Random(42);
+		List<String> lines = new ArrayList<>(nbConnections + 1);
+		lines.add("  sl  loc_tok  rem_tok  v6 local_address                         "
+				+ "remote_address                        st ns tx_queue rx_queue inode");
+		for (int i = 0; i < nbConnections; i++) {
+			lines.add(String.format("%4d: %08X %08X  0 %08X:%04X                         "
+					+ "%08X:%04X                      01 %02d %08X:%08X %d",
+					i, random.nextInt(), random.nextInt(), random.nextInt(),
+					random.nextInt(0xffff), random.nextInt(), 443, 1 + random.nextInt(4),
+					0, 0, 100000 + i));
+		}
+		return lines;
+	}
+
+	static String join(List<String> lines, char sep) {
+		StringBuilder joined = new StringBuilder();
+		for (String line : lines) {
+			joined.append(line).append(sep);
+		}
+		return joined.toString();
+	}
+
+	static InetAddress address(String host) {
+		try {
+			return InetAddress.getByName(host);
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/* wlan0, rmnet0 and nbOthers other interfaces, with IPv4 and IPv6 addresses */
+	static List<Iface> interfaces(int nbOthers) {
+		List<Iface> ifaces = new ArrayList<>();
+		ifaces.add(iface("lo", true, 0));
+		ifaces.add(iface("wlan0", false, 1));
+		ifaces.add(iface("rmnet0", false, 2));
+		for (int i = 0; i < nbOthers; i++) {
+			ifaces.add(iface("tun" + i, false, 3 + i));
+		}
+		return ifaces;
+	}
+
+	static Iface iface(String name, boolean loopback, int n) {
+		List<Iface.Address> addresses = new ArrayList<>();
+		if (loopback) {
+			addresses.add(new Iface.Address(address("127.0.0.1"), 8));
+		} else {
+			addresses.add(new Iface.Address(address("10." + (n >> 8 & 0xff) + "." + (n & 0xff) + ".2"), 24));
+			addresses.add(new Iface.Address(address("2001:db8:" + Integer.toHexString(n) + "::2"), 64));
+			addresses.add(new Iface.Address(address("fe80::" + Integer.toHexString(n) + ":2"), 64));
+		}
+		return new Iface(name, true, loopback, addresses);
+	}
+
+	/* A handover sample as collected by SaveDataHandover */
+	static StatsRecord handoverRecord(long timestamp, int nbConnections) {
+		StatsRecord record = new StatsRecord(StatsCategories.HANDOVER, timestamp);
+		record.putLong("timestamp", timestamp);
+		record.putString("wifiMac", "02:00:00:00:00:00");
+		record.putInt("mergedEvents", 3);
+		record.putString("netType", "WIFI");
+		record.putBoolean("netRoaming", false);
+		record.putBoolean("netAvailable", true);
+		record.putBoolean("netConnected", true);
+		record.putBoolean("netFailover", false);
+		record.putString("netDState", "CONNECTED");
+		record.putString("netExtras", "\"eduroam\"");
+		record.putInt("gsmFullCellId", 21371234);
+		record.putInt("gsmRNC", 326);
+		record.putInt("gsmShortCellId", 6498);
+		record.putInt("gsmCellLac", 3012);
+		record.putString("simOperator", "Proximus");
+		record.putString("wifiSSID", "\"eduroam\"");
+		record.putString("wifiBSSID", "00:1a:2b:3c:4d:5e");
+		record.putInt("wifiSignal4", 3);
+		record.putInt("wifiSignalRSSI", -61);
+		record.putInt("wifiSpeed", 72);
+		record.putString("wifiState", "Enabled");
+		record.putInt("wifiFreq", 2437);
+		record.putString("cellType", "LTE");
+		record.putString("simState", "Ready");
+		record.putString("dataState", "Connected");
+		record.putString("dataActivity", "InOut");
+		record.putInt("cellSignal4", 3);
+		record.putInt("cellSignaldBm", -97);
+		record.putString("ifaces", "wlan0;rmnet0");
+		record.putString("ipWifi4", "192.168.1.23");
+		record.putString("ipRMNet4", "10.64.12.7");
+		record.putString("netstat", join(procMptcp(nbConnections / 4), ';'));
+		record.putString("procMPTCP", join(procMptcp(nbConnections), ';'));
+		record.putString("procMPTCPFM", "1 2;");
+		record.putBoolean("airplane", false);
+		return record;
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import be.uclouvain.multipathcontrol.ifaces.IPRoute;
+import be.uclouvain.multipathcontrol.ifaces.Iface;
+import be.uclouvain.multipathcontrol.ifaces.InterfaceSource;
+import be.uclouvain.multipathcontrol.system.CmdResult;
+import be.uclouvain.multipathcontrol.system.GatewayResolver;
+import be.uclouvain.multipathcontrol.system.RoutingBackends;
+import be.uclouvain.multipathcontrol.system.Shell;
+
+/**
+ * IPRoute.monitorInterfaces() when nothing changed, as on most connectivity
+ * broadcasts, and when one interface changed its addresses.
+ */
+@State(Scope.Benchmark)
+public class MonitorInterfacesBenchmark {
+
+	@Param({ "2", "16" })
+	public int nbOthers;
+
+	private List<Iface> stable;
+	private List<Iface> flapped;
+	private boolean flap;
+	private IPRoute iproute;
+
+	private final InterfaceSource source = new InterfaceSource() {
+		@Override
+		public List<Iface> getInterfaces() {
+			return flap ? flapped : stable;
+		}
+
+		@Override
+		public Iface getByName(String name) {
+			for (Iface iface : getInterfaces()) {
+				if (iface.getName().equals(name)) {
+					return iface;
+				}
+			}
+			return null;
+		}
+	};
+
+	@Setup
+	public void setup() {
+		RoutingBackends.setDefault(new NullRoutingBackend());
+		GatewayResolver.setInstance(new GatewayResolver(new GatewayResolver.PropertySource() {
+			@Override
+			public String get(String key) {
+				return key.endsWith(".gw") ? "10.0.0.1" : null;
+			}
+		}, "/nonexistent", "/nonexistent", new Shell() {
+			@Override
+			public CmdResult run(String cmd) {
+				return new CmdResult(0, Collections.<String> emptyList());
+			}
+		}, new FixedClock()));
+
+		stable = Fixtures.interfaces(nbOthers);
+		flapped = new ArrayList<>(stable);
+		flapped.set(1, Fixtures.iface("wlan0", false, 1000));
+
+		iproute = new IPRoute(source, new IPRoute.Listener() {
+			@Override
+			public void onMobileRoutesUp(String iface) {}
+		});
+		iproute.monitorInterfaces();
+	}
+
+	@Benchmark
+	public boolean unchanged() {
+		flap = false;
+		return iproute.monitorInterfaces();
+	}
+
+	/* wlan0 gets a new address and back: two setups per call */
+	@Benchmark
+	public boolean flapWifi() {
+		flap = true;
+		boolean changed = iproute.monitorInterfaces();
+		flap = false;
+		return iproute.monitorInterfaces() & changed;
+	}
+}
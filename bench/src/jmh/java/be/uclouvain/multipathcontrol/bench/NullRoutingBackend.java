@@ -0,0 +1,51 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.bench;
+
+import java.util.List;
+
+import be.uclouvain.multipathcontrol.system.RouteTransaction.Op;
+import be.uclouvain.multipathcontrol.system.RoutingBackend;
+import be.uclouvain.multipathcontrol.system.RuleIndex;
+
+/**
+ * Accepts all the operations without doing anything: only the cost of the
+ * controller is measured.
+ */
+class NullRoutingBackend implements RoutingBackend {
+
+	private static final RuleIndex EMPTY = RuleIndex.fromPairs(new int[0]);
+
+	@Override
+	public String[] apply(List<Op> ops) {
+		return new String[ops.size()];
+	}
+
+	@Override
+	public RuleIndex dumpRules(int family) {
+		return EMPTY;
+	}
+
+	@Override
+	public int[] rulePriorities(int family, int table) {
+		return new int[0];
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import be.uclouvain.multipathcontrol.system.ProcFile;
+
+/**
+ * /proc/net/mptcp as saved in each handover sample: read, joined and
+ * squeezed.
+ */
+@State(Scope.Benchmark)
+public class ProcMptcpBenchmark {
+
+	@Param({ "100", "2000" })
+	public int nbConnections;
+
+	private File file;
+	private String joined;
+
+	@Setup
+	public void setup() throws IOException {
+		file = File.createTempFile("mptcp", ".txt");
+		Writer writer = new FileWriter(file);
+		try {
+			for (String line : Fixtures.procMptcp(nbConnections)) {
+				writer.write(line);
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+		joined = ProcFile.readJoined(file.getPath(), ';');
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public String readAndSqueeze() {
+		return ProcFile.squeeze(ProcFile.readJoined(file.getPath(), ';'));
+	}
+
+	@Benchmark
+	public String squeeze() {
+		return ProcFile.squeeze(joined);
+	}
+
+	/* what SaveDataHandover did before ProcFile.squeeze() */
+	@Benchmark
+	public String squeezeRegex() {
+		return joined.replaceAll("\\s+", " ");
+	}
+}
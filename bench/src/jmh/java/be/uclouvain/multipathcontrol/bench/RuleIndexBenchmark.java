@@ -0,0 +1,61 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.bench;
+
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import be.uclouvain.multipathcontrol.system.RuleIndex;
+
+/**
+ * Rule dumps, parsed when the rules of a table have to be removed
+ * (IPRouteUtils.existingRules).
+ */
+@State(Scope.Benchmark)
+public class RuleIndexBenchmark {
+
+	@Param({ "100", "500" })
+	public int nbRules;
+
+	private List<String> dump;
+	private RuleIndex index;
+
+	@Setup
+	public void setup() {
+		dump = Fixtures.ruleDump(nbRules, 16);
+		index = RuleIndex.parse(dump);
+	}
+
+	@Benchmark
+	public RuleIndex parse() {
+		return RuleIndex.parse(dump);
+	}
+
+	@Benchmark
+	public int[] priorities() {
+		return index.getPriorities(1007);
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import be.uclouvain.multipathcontrol.stats.SegmentedLog;
+import be.uclouvain.multipathcontrol.stats.StatsCodec;
+
+/**
+ * Save of a handover sample in the stats log, without sync: to compare with
+ * a SharedPreferences commit (XML file written and synced for each sample).
+ */
+@State(Scope.Benchmark)
+public class SegmentedLogBenchmark {
+
+	@Param({ "100", "2000" })
+	public int nbConnections;
+
+	private File dir;
+	private SegmentedLog log;
+	private byte[] encoded;
+	private long timestamp = 1500000000000L;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = File.createTempFile("stats", "");
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		log = new SegmentedLog(dir, 256 * 1024, 64);
+		encoded = new StatsCodec.Encoder(1).encode(Fixtures.handoverRecord(timestamp, nbConnections),
+				SegmentedLog.HEADER);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		log.close();
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public void append() throws IOException {
+		log.append(timestamp++, encoded);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import be.uclouvain.multipathcontrol.stats.SampleIndex;
+
+/**
+ * Index update for each sample. Before: the set of sample names kept in
+ * SharedPreferences was copied and written again (SharedPreferences is not
+ * available here, only the copy is measured). Now: an entry is appended to
+ * a SampleIndex.
+ */
+@State(Scope.Benchmark)
+public class StatsIndexBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int nbSamples;
+
+	private Set<String> statsSet;
+	private File indexFile;
+	private SampleIndex index;
+	private long timestamp = 1500000000000L;
+
+	@Setup
+	public void setup() throws IOException {
+		statsSet = new HashSet<>();
+		indexFile = File.createTempFile("stats", ".idx");
+		index = new SampleIndex(indexFile, Long.MAX_VALUE);
+		for (int i = 0; i < nbSamples; i++) {
+			statsSet.add(Long.toString(timestamp));
+			index.append(timestamp, i);
+			timestamp++;
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		index.close();
+		indexFile.delete();
+	}
+
+	@Benchmark
+	public Set<String> addPrefToList() {
+		// We need a copy: see doc about SharedPreferences.getStringSet()
+		Set<String> copy = new HashSet<>(statsSet);
+		copy.add(Long.toString(timestamp));
+		return copy;
+	}
+
+	@Benchmark
+	public void sampleIndex() throws IOException {
+		index.append(timestamp++, 0);
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import be.uclouvain.multipathcontrol.stats.SegmentedLog;
+import be.uclouvain.multipathcontrol.stats.StatsCodec;
+import be.uclouvain.multipathcontrol.stats.StatsRecord;
+
+/**
+ * Encoding of a handover sample with StatsCodec, done once per handover: as
+ * a keyframe, or after a sample where only a few fields were different.
+ */
+@State(Scope.Benchmark)
+public class StatsRecordBenchmark {
+
+	@Param({ "100", "2000" })
+	public int nbConnections;
+
+	private StatsRecord record;
+	private StatsRecord next;
+	private byte[] encoded;
+	/* each record is a keyframe */
+	private StatsCodec.Encoder keyframeEncoder;
+	private StatsCodec.Decoder decoder;
+	private StatsCodec.Encoder encoder;
+
+	@Setup
+	public void setup() {
+		record = Fixtures.handoverRecord(1500000000000L, nbConnections);
+		keyframeEncoder = new StatsCodec.Encoder(1);
+		decoder = new StatsCodec.Decoder();
+		encoded = keyframeEncoder.encode(record, SegmentedLog.HEADER);
+
+		next = Fixtures.handoverRecord(1500000060000L, nbConnections);
+		next.putInt("wifiSignalRSSI", -67);
+		next.putInt("cellSignaldBm", -101);
+		encoder = new StatsCodec.Encoder(Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return keyframeEncoder.encode(record, SegmentedLog.HEADER);
+	}
+
+	@Benchmark
+	public StatsRecord decode() throws IOException {
+		return decoder.decode(encoded);
+	}
+
+	@Benchmark
+	public byte[] codecDelta() {
+		encoder.encode(record, SegmentedLog.HEADER);
+		return encoder.encode(next, SegmentedLog.HEADER);
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.bench;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import be.uclouvain.multipathcontrol.system.IPRouteUtils;
+
+/**
+ * Subnet of each address, done for every address at each setup.
+ */
+@State(Scope.Benchmark)
+public class SubnetBenchmark {
+
+	private final InetAddress v4 = Fixtures.address("192.168.37.201");
+	private final InetAddress v6 = Fixtures.address("2001:db8:85a3:8d3:1319:8a2e:370:7348");
+
+	@Benchmark
+	public InetAddress toSubnet4() throws UnknownHostException {
+		return IPRouteUtils.toSubnet(v4, 21);
+	}
+
+	@Benchmark
+	public InetAddress toSubnet6() throws UnknownHostException {
+		return IPRouteUtils.toSubnet(v6, 64);
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import be.uclouvain.multipathcontrol.ifaces.Iface;
+import be.uclouvain.multipathcontrol.ifaces.InterfaceSource;
+
+/**
+ * Interfaces whose addresses are changed by the simulation.
+ */
+public class FakeInterfaces implements InterfaceSource {
+
+	private final Map<String, Iface> ifaces = new ConcurrentSkipListMap<>();
+
+	public void set(Iface iface) {
+		ifaces.put(iface.getName(), iface);
+	}
+
+	public void remove(String name) {
+		ifaces.remove(name);
+	}
+
+	@Override
+	public List<Iface> getInterfaces() {
+		return new ArrayList<>(ifaces.values());
+	}
+
+	@Override
+	public Iface getByName(String name) {
+		return ifaces.get(name);
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import be.uclouvain.multipathcontrol.system.CmdResult;
+import be.uclouvain.multipathcontrol.system.Shell;
+
+/**
+ * Shell understanding the scripts sent by the routing code: "ip" commands,
+ * alone or as an "ip -batch -" fed by a heredoc, and "echo" of $?. The ip
+ * commands are applied to a FakeKernel.
+ *
+ * Each script and each ip command can be delayed, and each change can be
+ * made to fail with a given probability, as a busy device would.
+ */
+public class FakeIpShell implements Shell {
+
+	static final String EBUSY = "RTNETLINK answers: Device or resource busy";
+
+	private final FakeKernel kernel;
+	private final Random random;
+
+	private volatile long callLatencyNanos = 0;
+	private volatile long commandLatencyNanos = 0;
+	private volatile double failureRate = 0;
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong commands = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong injected = new AtomicLong();
+
+	public FakeIpShell(FakeKernel kernel, long seed) {
+		this.kernel = kernel;
+		this.random = new Random(seed);
+	}
+
+	/* Delay of each script (fork or round trip to the shell) */
+	public void setCallLatency(long latency, TimeUnit unit) {
+		callLatencyNanos = unit.toNanos(latency);
+	}
+
+	/* Delay of each ip command, including each line of a batch */
+	public void setCommandLatency(long latency, TimeUnit unit) {
+		commandLatencyNanos = unit.toNanos(latency);
+	}
+
+	/* Probability for each change to fail with EBUSY */
+	public void setFailureRate(double failureRate) {
+		this.failureRate = failureRate;
+	}
+
+	public FakeKernel getKernel() {
+		return kernel;
+	}
+
+	public long getCalls() {
+		return calls.get();
+	}
+
+	public long getCommands() {
+		return commands.get();
+	}
+
+	/* @return number of failed commands, injected failures included */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getInjectedFailures() {
+		return injected.get();
+	}
+
+	private static void delay(long nanos) {
+		if (nanos > 0) {
+			LockSupport.parkNanos(nanos);
+		}
+	}
+
+	/* "ip -4 -force -batch - <<'EOF'" -> heredoc tag "EOF", null if none */
+	private static String heredoc(String[] tokens) {
+		String last = tokens[tokens.length - 1];
+		if (!last.startsWith("<<")) {
+			return null;
+		}
+		return last.substring(2).replace("'", "").replace("\"", "");
+	}
+
+	private synchronized boolean injectFailure() {
+		return failureRate > 0 && random.nextDouble() < failureRate;
+	}
+
+	/* @return the error of an ip command without "ip -X", null on success */
+	private String execIp(int family, String[] args, List<String> output) {
+		commands.incrementAndGet();
+		delay(commandLatencyNanos);
+
+		if (args.length >= 2 && args[1].equals("show")) {
+			String dev = null;
+			for (int i = 2; i < args.length - 1; i++) {
+				if (args[i].equals("dev")) {
+					dev = args[i + 1];
+				}
+			}
+			if (args[0].equals("rule")) {
+				output.addAll(kernel.showRules(family));
+				return null;
+			}
+			if (args[0].equals("route")) {
+				output.addAll(kernel.showRoutes(family, dev));
+				return null;
+			}
+		}
+
+		if (injectFailure()) {
+			injected.incrementAndGet();
+			failures.incrementAndGet();
+			return EBUSY;
+		}
+		String error = kernel.exec(family, args);
+		if (error != null) {
+			failures.incrementAndGet();
+		}
+		return error;
+	}
+
+	@Override
+	public CmdResult run(String cmd) {
+		calls.incrementAndGet();
+		delay(callLatencyNanos);
+
+		List<String> output = new ArrayList<>();
+		String[] lines = cmd.split("\n");
+		int exitCode = 0;
+
+		for (int l = 0; l < lines.length; l++) {
+			String line = lines[l].trim();
+			if (line.isEmpty()) {
+				continue;
+			}
+
+			if (line.startsWith("echo ")) {
+				String text = line.substring(5).replace("\"", "");
+				output.add(text.replace("$?", Integer.toString(exitCode)));
+				exitCode = 0;
+				continue;
+			}
+
+			String[] tokens = line.split("\\s+");
+			if (!tokens[0].equals("ip")) {
+				output.add("sh: " + tokens[0] + ": not found");
+				exitCode = 127;
+				continue;
+			}
+
+			int family = 4;
+			boolean batch = false;
+			int i = 1;
+			for (; i < tokens.length && tokens[i].startsWith("-"); i++) {
+				if (tokens[i].equals("-6")) {
+					family = 6;
+				} else if (tokens[i].equals("-batch")) {
+					batch = true;
+				}
+			}
+
+			if (!batch) {
+				String[] args = Arrays.copyOfRange(tokens, i, tokens.length);
+				String error = execIp(family, args, output);
+				if (error != null) {
+					output.add(error);
+				}
+				exitCode = error == null ? 0 : 2;
+				continue;
+			}
+
+			// one command per line, until the end of the heredoc
+			String tag = heredoc(tokens);
+			exitCode = 0;
+			int batchLine = 0;
+			while (++l < lines.length && !lines[l].equals(tag)) {
+				batchLine++;
+				String[] args = lines[l].trim().split("\\s+");
+				String error = execIp(family, args, output);
+				if (error != null) {
+					output.add(error);
+					output.add("Command failed -:" + batchLine);
+					exitCode = 1;
+				}
+			}
+		}
+
+		return new CmdResult(exitCode, output);
+	}
+}
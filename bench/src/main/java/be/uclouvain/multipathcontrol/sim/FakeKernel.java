@@ -0,0 +1,361 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.sim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory policy routing state of a kernel: rules and routing tables of
+ * IPv4 and IPv6, modified with the arguments of "ip rule" and "ip route".
+ *
+ * Like the kernel, a rule added without priority gets the priority just
+ * before the first rule after "lookup local", and such rules are not
+ * checked for duplicates.
+ */
+public class FakeKernel {
+
+	public static final int TABLE_DEFAULT = 253;
+	public static final int TABLE_MAIN = 254;
+	public static final int TABLE_LOCAL = 255;
+
+	static final String EEXIST = "RTNETLINK answers: File exists";
+	static final String ENOENT = "RTNETLINK answers: No such file or directory";
+	static final String ESRCH = "RTNETLINK answers: No such process";
+	static final String EINVAL = "Error: argument is wrong";
+
+	private static class Rule {
+		final int prio;
+		/* null: from all */
+		final String from;
+		final int table;
+
+		Rule(int prio, String from, int table) {
+			this.prio = prio;
+			this.from = from;
+			this.table = table;
+		}
+	}
+
+	private static class Route {
+		final String via;
+		final String dev;
+
+		Route(String via, String dev) {
+			this.via = via;
+			this.dev = dev;
+		}
+	}
+
+	/* The rules and routes of an IP version */
+	private static class Family {
+		/* sorted by priority */
+		final List<Rule> rules = new ArrayList<>();
+		/* table -> destination ("default" or "subnet/prefix") -> route */
+		final Map<Integer, Map<String, Route>> tables = new HashMap<>();
+	}
+
+	/* indexed by family: 4 or 6 */
+	private final Family[] families = new Family[7];
+
+	public FakeKernel() {
+		for (int family : new int[] { 4, 6 }) {
+			Family f = new Family();
+			f.rules.add(new Rule(0, null, TABLE_LOCAL));
+			f.rules.add(new Rule(32766, null, TABLE_MAIN));
+			if (family == 4) {
+				f.rules.add(new Rule(32767, null, TABLE_DEFAULT));
+			}
+			families[family] = f;
+		}
+	}
+
+	private static String tableName(int table) {
+		switch (table) {
+			case TABLE_DEFAULT:
+				return "default";
+			case TABLE_MAIN:
+				return "main";
+			case TABLE_LOCAL:
+				return "local";
+			default:
+				return Integer.toString(table);
+		}
+	}
+
+	private static int parseTable(String table) {
+		switch (table) {
+			case "default":
+				return TABLE_DEFAULT;
+			case "main":
+				return TABLE_MAIN;
+			case "local":
+				return TABLE_LOCAL;
+			default:
+				return Integer.parseInt(table);
+		}
+	}
+
+	private static String normalize(String dst) {
+		return dst.equals("all") || dst.equals("0.0.0.0/0") || dst.equals("::/0") ? "default" : dst;
+	}
+
+	/* @return "key value" options of args, from index start */
+	private static Map<String, String> options(String[] args, int start) {
+		Map<String, String> options = new HashMap<>();
+		for (int i = start; i < args.length; i++) {
+			switch (args[i]) {
+				case "from":
+				case "prio":
+				case "priority":
+				case "pref":
+				case "table":
+				case "lookup":
+				case "via":
+				case "dev":
+				case "scope":
+				case "proto":
+				case "metric":
+					if (i + 1 >= args.length) {
+						throw new IllegalArgumentException(args[i]);
+					}
+					options.put(args[i], args[++i]);
+					break;
+				default:
+					options.put("dst", args[i]);
+			}
+		}
+		return options;
+	}
+
+	private static String get(Map<String, String> options, String... keys) {
+		for (String key : keys) {
+			if (options.containsKey(key)) {
+				return options.get(key);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Execute "ip -family args", e.g. {"rule", "add", "from", "10.0.0.2", "table", "3"}
+	 *
+	 * @return the error message, null on success
+	 */
+	public synchronized String exec(int family, String[] args) {
+		if (family != 4 && family != 6 || args.length < 2) {
+			return EINVAL;
+		}
+
+		try {
+			Map<String, String> options = options(args, 2);
+			switch (args[0]) {
+				case "rule":
+					switch (args[1]) {
+						case "add":
+							return addRule(family, options);
+						case "del":
+						case "delete":
+							return deleteRule(family, options);
+					}
+					break;
+				case "route":
+					switch (args[1]) {
+						case "add":
+							return addRoute(family, options);
+						case "del":
+						case "delete":
+							return deleteRoute(family, options);
+						case "flush":
+							return flushTable(family, options);
+					}
+					break;
+			}
+		} catch (IllegalArgumentException e) {
+			return EINVAL;
+		}
+		return EINVAL;
+	}
+
+	private String addRule(int family, Map<String, String> options) {
+		String table = get(options, "table", "lookup");
+		if (table == null) {
+			return EINVAL;
+		}
+		String from = get(options, "from");
+		if (from != null && from.equals("all")) {
+			from = null;
+		}
+		String prio = get(options, "prio", "priority", "pref");
+
+		List<Rule> list = families[family].rules;
+		Rule rule;
+		if (prio == null) {
+			// just before the first rule after local
+			int first = list.size() > 1 ? list.get(1).prio : 32766;
+			rule = new Rule(Math.max(first - 1, 0), from, parseTable(table));
+		} else {
+			rule = new Rule(Integer.parseInt(prio), from, parseTable(table));
+			for (Rule other : list) {
+				if (other.prio == rule.prio && other.table == rule.table
+						&& (other.from == null ? from == null : other.from.equals(from))) {
+					return EEXIST;
+				}
+			}
+		}
+
+		int i = 0;
+		while (i < list.size() && list.get(i).prio <= rule.prio) {
+			i++;
+		}
+		list.add(i, rule);
+		return null;
+	}
+
+	private String deleteRule(int family, Map<String, String> options) {
+		String prio = get(options, "prio", "priority", "pref");
+		String from = get(options, "from");
+		String table = get(options, "table", "lookup");
+
+		List<Rule> list = families[family].rules;
+		for (int i = 0; i < list.size(); i++) {
+			Rule rule = list.get(i);
+			if (prio != null && rule.prio != Integer.parseInt(prio)
+					|| from != null && !from.equals(rule.from)
+					|| table != null && rule.table != parseTable(table)) {
+				continue;
+			}
+			list.remove(i);
+			return null;
+		}
+		return ENOENT;
+	}
+
+	private Map<String, Route> table(int family, Map<String, String> options, boolean create) {
+		String name = get(options, "table");
+		int table = name == null ? TABLE_MAIN : parseTable(name);
+		Map<String, Route> routes = families[family].tables.get(table);
+		if (routes == null && create) {
+			routes = new LinkedHashMap<>();
+			families[family].tables.put(table, routes);
+		}
+		return routes;
+	}
+
+	private String addRoute(int family, Map<String, String> options) {
+		String dst = get(options, "dst");
+		String dev = get(options, "dev");
+		if (dst == null || dev == null) {
+			return EINVAL;
+		}
+
+		Map<String, Route> routes = table(family, options, true);
+		dst = normalize(dst);
+		if (routes.containsKey(dst)) {
+			return EEXIST;
+		}
+		routes.put(dst, new Route(get(options, "via"), dev));
+		return null;
+	}
+
+	private String deleteRoute(int family, Map<String, String> options) {
+		String dst = get(options, "dst");
+		Map<String, Route> routes = table(family, options, false);
+		if (dst == null || routes == null || routes.remove(normalize(dst)) == null) {
+			return ESRCH;
+		}
+		return null;
+	}
+
+	private String flushTable(int family, Map<String, String> options) {
+		Map<String, Route> routes = table(family, options, false);
+		if (routes != null) {
+			routes.clear();
+		}
+		return null;
+	}
+
+	/* Output of "ip -family rule show" */
+	public synchronized List<String> showRules(int family) {
+		List<String> lines = new ArrayList<>();
+		for (Rule rule : families[family].rules) {
+			lines.add(rule.prio + ":\tfrom " + (rule.from == null ? "all" : rule.from)
+					+ " lookup " + tableName(rule.table) + " ");
+		}
+		return lines;
+	}
+
+	/* Output of "ip -family route show table all dev dev" */
+	public synchronized List<String> showRoutes(int family, String dev) {
+		List<String> lines = new ArrayList<>();
+		for (Map.Entry<Integer, Map<String, Route>> table : families[family].tables.entrySet()) {
+			for (Map.Entry<String, Route> route : table.getValue().entrySet()) {
+				if (dev != null && !dev.equals(route.getValue().dev)) {
+					continue;
+				}
+				StringBuilder line = new StringBuilder(route.getKey());
+				if (route.getValue().via != null) {
+					line.append(" via ").append(route.getValue().via);
+				}
+				if (dev == null) {
+					line.append(" dev ").append(route.getValue().dev);
+				}
+				if (table.getKey() != TABLE_MAIN) {
+					line.append(" table ").append(tableName(table.getKey()));
+				}
+				if (route.getValue().via == null) {
+					line.append(" scope link");
+				}
+				lines.add(line.toString());
+			}
+		}
+		return lines;
+	}
+
+	public synchronized boolean hasRule(int family, String from, int table) {
+		for (Rule rule : families[family].rules) {
+			if (rule.table == table && from.equals(rule.from)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* @return number of rules using this table */
+	public synchronized int countRules(int family, int table) {
+		int count = 0;
+		for (Rule rule : families[family].rules) {
+			if (rule.table == table) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/* @return number of routes of this table */
+	public synchronized int countRoutes(int family, int table) {
+		Map<String, Route> routes = families[family].tables.get(table);
+		return routes == null ? 0 : routes.size();
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.sim;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import be.uclouvain.multipathcontrol.ifaces.IPRoute;
+import be.uclouvain.multipathcontrol.ifaces.Iface;
+import be.uclouvain.multipathcontrol.system.CachingRoutingBackend;
+import be.uclouvain.multipathcontrol.system.Clock;
+import be.uclouvain.multipathcontrol.system.GatewayResolver;
+import be.uclouvain.multipathcontrol.system.IPEvent;
+import be.uclouvain.multipathcontrol.system.IPMonitorParser;
+import be.uclouvain.multipathcontrol.system.IPRouteUtils;
+import be.uclouvain.multipathcontrol.system.RoutingBackends;
+import be.uclouvain.multipathcontrol.system.ShellRoutingBackend;
+
+/**
+ * Load driver: interfaces of a FakeKernel change their IPv4 address as fast
+ * as possible, and each change is given to IPRoute as IPMonitor would.
+ *
+ * Reports the reconvergence time (address change to routes installed), the
+ * number of shell round trips and ip commands per flap, and the number of
+ * flaps after which the kernel state was not the expected one.
+ *
+ * Usage: FlapLoad [nbIfaces] [nbFlaps] [commandLatencyUs] [failureRate]
+ */
+public class FlapLoad {
+
+	private final int nbIfaces;
+	private final FakeIpShell shell;
+	private final FakeInterfaces interfaces = new FakeInterfaces();
+	private final IPRoute iproute;
+	/* current host part of the IPv4 address of each interface */
+	private final int[] hosts;
+	private int mobileUps = 0;
+
+	FlapLoad(int nbIfaces, long commandLatencyUs, double failureRate) {
+		this.nbIfaces = nbIfaces;
+		this.hosts = new int[nbIfaces];
+
+		FakeKernel kernel = new FakeKernel();
+		shell = new FakeIpShell(kernel, 1);
+
+		// as on Android, the gateway of each network is in its own table
+		for (int i = 0; i < nbIfaces; i++) {
+			String name = ifaceName(i);
+			String table = " table " + (100 + i);
+			kernel.exec(4, ("route add " + subnet(i) + ".0/24 dev " + name + " scope link" + table).split(" "));
+			kernel.exec(4, ("route add default via " + subnet(i) + ".1 dev " + name + table).split(" "));
+			kernel.exec(6, ("route add default via fe80::1 dev " + name + table).split(" "));
+			hosts[i] = 2;
+			interfaces.set(iface(i));
+		}
+
+		RoutingBackends.setDefault(new CachingRoutingBackend(new ShellRoutingBackend(shell)));
+		GatewayResolver.setInstance(new GatewayResolver(null, "/nonexistent", "/nonexistent",
+				shell, Clock.SYSTEM));
+
+		iproute = new IPRoute(interfaces, new IPRoute.Listener() {
+			@Override
+			public void onMobileRoutesUp(String iface) {
+				mobileUps++;
+			}
+		});
+		iproute.monitorInterfaces();
+
+		// the setup above is not measured
+		shell.setCommandLatency(commandLatencyUs, TimeUnit.MICROSECONDS);
+		shell.setFailureRate(failureRate);
+	}
+
+	private static String ifaceName(int i) {
+		return (i % 2 == 0 ? "wlan" : "rmnet") + i / 2;
+	}
+
+	private static String subnet(int i) {
+		return "10." + (i >> 8 & 0xff) + "." + (i & 0xff);
+	}
+
+	private static InetAddress address(String host) {
+		try {
+			return InetAddress.getByName(host);
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private Iface iface(int i) {
+		List<Iface.Address> addresses = new ArrayList<>();
+		addresses.add(new Iface.Address(address(subnet(i) + "." + hosts[i]), 24));
+		addresses.add(new Iface.Address(address("2001:db8:" + Integer.toHexString(i) + "::2"), 64));
+		addresses.add(new Iface.Address(address("fe80::" + Integer.toHexString(i + 1)), 64));
+		return new Iface(ifaceName(i), true, false, addresses);
+	}
+
+	/* @return true if the kernel has the rules of the current address of iface i */
+	private boolean converged(int i) {
+		int table = IPRouteUtils.mapIfaceToTable(ifaceName(i));
+		FakeKernel kernel = shell.getKernel();
+		return kernel.hasRule(4, subnet(i) + "." + hosts[i], table)
+				&& kernel.countRules(4, table) == 1
+				&& kernel.countRoutes(4, table) == 2;
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+	}
+
+	void run(int nbFlaps) {
+		Random random = new Random(2);
+		long[] latencies = new long[nbFlaps];
+		int diverged = 0;
+		long calls = shell.getCalls();
+		long commands = shell.getCommands();
+
+		long start = System.nanoTime();
+		for (int f = 0; f < nbFlaps; f++) {
+			int i = random.nextInt(nbIfaces);
+			hosts[i] = hosts[i] == 2 ? 3 : 2;
+			interfaces.set(iface(i));
+			String name = ifaceName(i);
+			IPEvent event = IPMonitorParser.parse("[ADDR]" + (i + 2) + ": " + name + "    inet "
+					+ subnet(i) + "." + hosts[i] + "/24 scope global " + name);
+
+			long t0 = System.nanoTime();
+			iproute.onIPEvent(event);
+			latencies[f] = System.nanoTime() - t0;
+
+			if (!converged(i)) {
+				diverged++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		Arrays.sort(latencies);
+		System.out.printf("%d interfaces, %d flaps in %.1f ms: %.0f flaps/s%n", nbIfaces, nbFlaps,
+				elapsed / 1e6, nbFlaps / (elapsed / 1e9));
+		System.out.printf("reconvergence (us): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+				percentile(latencies, 0.5) / 1e3, percentile(latencies, 0.9) / 1e3,
+				percentile(latencies, 0.99) / 1e3, latencies[nbFlaps - 1] / 1e3);
+		System.out.printf("per flap: %.2f shell calls, %.2f ip commands%n",
+				(shell.getCalls() - calls) / (double) nbFlaps,
+				(shell.getCommands() - commands) / (double) nbFlaps);
+		System.out.printf("failures: %d injected, %d total; %d flaps not converged; %d mobile route setups%n",
+				shell.getInjectedFailures(), shell.getFailures(), diverged, mobileUps);
+	}
+
+	public static void main(String[] args) {
+		int nbIfaces = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int nbFlaps = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		long latencyUs = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		double failureRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+
+		new FlapLoad(nbIfaces, latencyUs, failureRate).run(nbFlaps);
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.sim;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import be.uclouvain.multipathcontrol.ifaces.IPRoute;
+import be.uclouvain.multipathcontrol.ifaces.Iface;
+import be.uclouvain.multipathcontrol.stats.HandoverLatency;
+import be.uclouvain.multipathcontrol.system.CachingRoutingBackend;
+import be.uclouvain.multipathcontrol.system.Clock;
+import be.uclouvain.multipathcontrol.system.GatewayResolver;
+import be.uclouvain.multipathcontrol.system.IPEvent;
+import be.uclouvain.multipathcontrol.system.IPMonitorParser;
+import be.uclouvain.multipathcontrol.system.RoutingBackends;
+import be.uclouvain.multipathcontrol.system.ShellRoutingBackend;
+import be.uclouvain.multipathcontrol.trace.TraceReader;
+import be.uclouvain.multipathcontrol.trace.TraceRecord;
+
+/**
+ * Replays a trace recorded by the service (Config.recordTrace) against a
+ * FakeKernel: the interfaces and default routes of the trace are applied to
+ * the simulation and each event is given to IPRoute as the service would.
+ *
+ * Connectivity events run monitorInterfaces() at once, without the settle
+ * window of the service: each of them is a worst case.
+ *
+ * Usage: TraceReplay file [speed] [commandLatencyUs]
+ * speed: 1 replays in real time, 10 ten times faster, 0 as fast as possible
+ */
+public class TraceReplay {
+
+	private final FakeIpShell shell;
+	private final FakeInterfaces interfaces = new FakeInterfaces();
+	private final Map<String, List<Iface.Address>> addresses = new HashMap<>();
+	/* table of the gateway of each network, as on Android */
+	private final Map<String, Integer> tables = new HashMap<>();
+	private final IPRoute iproute;
+	private final Map<TraceRecord.Type, Integer> counts = new EnumMap<>(TraceRecord.Type.class);
+	private final List<Long> latencies = new ArrayList<>();
+	private int mobileUps = 0;
+	private int unparsed = 0;
+
+	TraceReplay(long commandLatencyUs) {
+		shell = new FakeIpShell(new FakeKernel(), 1);
+		shell.setCommandLatency(commandLatencyUs, TimeUnit.MICROSECONDS);
+
+		RoutingBackends.setDefault(new CachingRoutingBackend(new ShellRoutingBackend(shell)));
+		GatewayResolver.setInstance(new GatewayResolver(null, "/nonexistent", "/nonexistent",
+				shell, Clock.SYSTEM));
+
+		iproute = new IPRoute(interfaces, new IPRoute.Listener() {
+			@Override
+			public void onMobileRoutesUp(String iface) {
+				mobileUps++;
+			}
+		});
+		for (TraceRecord.Type type : TraceRecord.Type.values()) {
+			counts.put(type, 0);
+		}
+	}
+
+	private static InetAddress address(String host) {
+		// link-local IPv6 addresses are recorded with their scope: "fe80::1%wlan0"
+		int scope = host.indexOf('%');
+		if (scope != -1) {
+			host = host.substring(0, scope);
+		}
+		try {
+			return InetAddress.getByName(host);
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static Iface.Address parseAddress(String address) {
+		int slash = address.indexOf('/');
+		if (slash == -1) {
+			return new Iface.Address(address(address), 0);
+		}
+		return new Iface.Address(address(address.substring(0, slash)),
+				Integer.parseInt(address.substring(slash + 1)));
+	}
+
+	private void update(String name) {
+		List<Iface.Address> list = addresses.get(name);
+		interfaces.set(new Iface(name, true, false, new ArrayList<>(list)));
+	}
+
+	private void exec(int family, String cmd) {
+		// the trace can repeat a route: EEXIST and ESRCH are expected
+		shell.getKernel().exec(family, cmd.split(" "));
+	}
+
+	/* The gateway of a new network: table 100+, gateway .1 or fe80::1 */
+	private void addNetwork(String name, Iface.Address address) {
+		Integer table = tables.get(name);
+		if (table == null) {
+			table = 100 + tables.size();
+			tables.put(name, table);
+		}
+		byte[] bytes = address.address.getAddress();
+		if (bytes.length == 4 && address.prefix > 0 && address.prefix < 31) {
+			int mask = -1 << (32 - address.prefix);
+			int host = (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8
+					| bytes[3] & 0xff;
+			int net = host & mask;
+			exec(4, "route add " + ipv4(net) + "/" + address.prefix + " dev " + name
+					+ " scope link table " + table);
+			exec(4, "route add default via " + ipv4(net + 1) + " dev " + name + " table " + table);
+		} else if (bytes.length == 16 && !address.address.isLinkLocalAddress()) {
+			exec(6, "route add default via fe80::1 dev " + name + " table " + table);
+		}
+	}
+
+	private static String ipv4(int addr) {
+		return (addr >>> 24) + "." + (addr >> 16 & 0xff) + "." + (addr >> 8 & 0xff) + "." + (addr & 0xff);
+	}
+
+	private void applyIface(String data) {
+		String[] tokens = data.split(" ");
+		List<Iface.Address> list = new ArrayList<>();
+		addresses.put(tokens[0], list);
+		for (int i = 1; i < tokens.length; i++) {
+			Iface.Address address = parseAddress(tokens[i]);
+			list.add(address);
+			addNetwork(tokens[0], address);
+		}
+		update(tokens[0]);
+	}
+
+	/* Make the simulation look like the kernel which reported this event */
+	private void applyIPEvent(IPEvent event) {
+		switch (event.type) {
+			case LINK:
+				if (event.deleted || !event.up) {
+					interfaces.remove(event.iface);
+					addresses.remove(event.iface);
+				} else if (!addresses.containsKey(event.iface)) {
+					addresses.put(event.iface, new ArrayList<Iface.Address>());
+					update(event.iface);
+				}
+				break;
+			case ADDRESS:
+				List<Iface.Address> list = addresses.get(event.iface);
+				if (list == null) {
+					list = new ArrayList<>();
+					addresses.put(event.iface, list);
+				}
+				Iface.Address address = new Iface.Address(address(event.address), event.prefix);
+				if (event.deleted) {
+					list.remove(address);
+				} else if (!list.contains(address)) {
+					list.add(address);
+					addNetwork(event.iface, address);
+				}
+				update(event.iface);
+				break;
+			case ROUTE:
+				if (event.isDefaultRoute() && event.gateway != null && event.iface != null) {
+					exec(event.family, "route " + (event.deleted ? "del" : "add") + " default via "
+							+ event.gateway + " dev " + event.iface + " table " + event.table);
+				}
+				break;
+		}
+	}
+
+	private void replay(TraceRecord record) {
+		counts.put(record.type, counts.get(record.type) + 1);
+
+		long t0;
+		switch (record.type) {
+			case IFACE:
+				applyIface(record.data);
+				break;
+			case IP:
+				IPEvent event = IPMonitorParser.parse(record.data);
+				if (event == null) {
+					unparsed++;
+					break;
+				}
+				applyIPEvent(event);
+				HandoverLatency latency = HandoverLatency.getInstance();
+				boolean started = latency.begin(latency.now());
+				t0 = System.nanoTime();
+				boolean changed = iproute.onIPEvent(event);
+				latencies.add(System.nanoTime() - t0);
+				// as the service, where a change is settled at the end of its burst
+				if (changed) {
+					latency.settle();
+				} else if (started) {
+					latency.cancel();
+				}
+				break;
+			case CONNECTIVITY:
+				HandoverLatency.getInstance().begin();
+				t0 = System.nanoTime();
+				iproute.monitorInterfaces();
+				latencies.add(System.nanoTime() - t0);
+				HandoverLatency.getInstance().settle();
+				break;
+			case SIGNAL:
+				// no routing change: only counted
+				break;
+		}
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+	}
+
+	void run(TraceReader reader, double speed) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		boolean first = true;
+		TraceRecord record;
+		while ((record = reader.next()) != null) {
+			// the state of the trace start is applied before the first event
+			if (first && record.type != TraceRecord.Type.IFACE) {
+				iproute.monitorInterfaces();
+				first = false;
+			}
+			if (speed > 0) {
+				long due = start + (long) (record.time * 1e6 / speed);
+				long wait = due - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+			}
+			replay(record);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		System.out.printf("replayed in %.1f ms: %s, %d unparsed ip lines%n", elapsed / 1e6, counts,
+				unparsed);
+		if (!latencies.isEmpty()) {
+			long[] sorted = new long[latencies.size()];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = latencies.get(i);
+			}
+			Arrays.sort(sorted);
+			System.out.printf("reconfiguration (us): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+					percentile(sorted, 0.5) / 1e3, percentile(sorted, 0.9) / 1e3,
+					percentile(sorted, 0.99) / 1e3, sorted[sorted.length - 1] / 1e3);
+		}
+		System.out.printf("%d shell calls, %d ip commands, %d failures; %d mobile route setups%n",
+				shell.getCalls(), shell.getCommands(), shell.getFailures(), mobileUps);
+		for (String rule : shell.getKernel().showRules(4)) {
+			System.out.println(rule);
+		}
+
+		PrintWriter writer = new PrintWriter(System.out);
+		HandoverLatency.getInstance().dump(writer);
+		writer.flush();
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("Usage: TraceReplay file [speed] [commandLatencyUs]");
+			System.exit(1);
+		}
+		double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+		long latencyUs = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+		TraceReader reader = new TraceReader(new BufferedInputStream(new FileInputStream(args[0])));
+		try {
+			new TraceReplay(latencyUs).run(reader, speed);
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.ifaces;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import be.uclouvain.multipathcontrol.stats.HandoverLatency;
+import be.uclouvain.multipathcontrol.system.GatewayResolver;
+import be.uclouvain.multipathcontrol.system.IPEvent;
+import be.uclouvain.multipathcontrol.system.IPRouteUtils;
+import be.uclouvain.multipathcontrol.system.RouteTransaction;
+import be.uclouvain.multipathcontrol.system.RouteTransaction.Op;
+import be.uclouvain.multipathcontrol.system.RoutingState;
+import be.uclouvain.multipathcontrol.system.TableAllocator;
+
+public class IPRoute {
+
+	public interface Listener {
+		/* The routes of a mobile interface have just been set up */
+		void onMobileRoutesUp(String iface);
+	}
+
+	private final InterfaceSource interfaces;
+	private final Listener listener;
+	private volatile boolean enabled = true;
+
+	private HashMap<String, Integer> mIntfState;
+	private final RoutingState routingState = new RoutingState();
+
+	public IPRoute(InterfaceSource interfaces, Listener listener) {
+		mIntfState = new HashMap<>();
+		this.interfaces = interfaces;
+		this.listener = listener;
+	}
+
+	/* When disabled, the routes are removed by the next monitorInterfaces() */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/*
+	 * Add Policy routing for interface: only what changed since the last time
+	 * is applied, the table is reset if its content is unknown.
+	 */
+	private void setupRule(Iface iface) {
+		int table = IPRouteUtils.mapIfaceToTable(iface.getName());
+		Set<Op> desired = new LinkedHashSet<>();
+		// gateway per IP version (IPRouteUtils.familyIndex()), looked up if needed
+		String[] gateways = new String[IPRouteUtils.FAMILIES];
+		boolean[] gatewayKnown = new boolean[IPRouteUtils.FAMILIES];
+
+		// nothing is desired when disabled: the table is emptied
+		List<Iface.Address> addresses = enabled ? iface.getAddresses()
+				: Collections.<Iface.Address> emptyList();
+
+		for (Iface.Address intfAddr : addresses) {
+			InetAddress addr = intfAddr.address;
+			int prefix = intfAddr.prefix;
+			int family = IPRouteUtils.getFamily(addr);
+			InetAddress subnet;
+
+			// link-local addresses cannot be used to reach the Internet
+			if (addr.isLinkLocalAddress() || addr.isLoopbackAddress()) {
+				continue;
+			}
+
+			int ip = IPRouteUtils.familyIndex(family);
+			if (!gatewayKnown[ip]) {
+				gateways[ip] = IPRouteUtils.removeScope(IPRouteUtils.getGateway(iface.getName(), family));
+				gatewayKnown[ip] = true;
+			}
+			String gateway = gateways[ip];
+
+			if (gateway == null) {
+				continue;
+			}
+
+			try {
+				subnet = IPRouteUtils.toSubnet(addr, prefix);
+			} catch (UnknownHostException e) {
+				continue;
+			}
+
+			String hostAddr = IPRouteUtils.removeScope(addr.getHostAddress());
+			String subnetAddr = IPRouteUtils.removeScope(subnet.getHostAddress());
+			if (hostAddr == null || subnetAddr == null) {
+				continue;
+			}
+
+			desired.add(Op.rule(family, hostAddr, table));
+			desired.add(Op.linkRoute(family, subnetAddr, prefix, iface.getName(), table));
+			// a link-local IPv6 gateway is only valid with its dev: always given
+			desired.add(Op.defaultRoute(family, gateway, iface.getName(), table));
+		}
+
+		RouteTransaction tx = new RouteTransaction();
+		if (routingState.isKnown(table)) {
+			routingState.diff(table, desired, tx);
+		} else {
+			IPRouteUtils.resetTable(table, tx);
+			for (Op op : desired) {
+				tx.add(op);
+			}
+		}
+
+		if (tx.isEmpty()) {
+			return;
+		}
+
+		// rules without their routes would blackhole the traffic: roll back
+		RouteTransaction.Result result = tx.commit(true);
+		routingState.update(table, desired, result);
+		if (!result.isSuccess()) {
+			return;
+		}
+
+		if (desired.isEmpty()) {
+			HandoverLatency.getInstance().mark(HandoverLatency.Stage.RESET, iface.getName());
+			return;
+		}
+		HandoverLatency.getInstance().mark(HandoverLatency.Stage.SETUP, iface.getName());
+		if (IPRouteUtils.isMobile(iface.getName())) {
+			listener.onMobileRoutesUp(iface.getName());
+		}
+	}
+
+	/* @return true if the routes of iface had to be updated */
+	private boolean checkInterface(Iface iface, boolean force) {
+		int addrs = enabled ? iface.getAddresses().hashCode() : 1;
+		String name = iface.getName();
+
+		if (iface.isLoopback()) {
+			return false;
+		}
+
+		if (!mIntfState.containsKey(name)) {
+			if (addrs != 1) { /* hashcode of an empty List is 1 */
+				HandoverLatency.getInstance().mark(HandoverLatency.Stage.DETECTED, name);
+				setupRule(iface);
+			}
+
+			mIntfState.put(name, addrs);
+			return true;
+		}
+
+		if (force || addrs != mIntfState.get(name)) {
+			HandoverLatency.getInstance().mark(HandoverLatency.Stage.DETECTED, name);
+			if (force) {
+				// the kernel may have dropped our routes: rebuild the table
+				routingState.forget(IPRouteUtils.mapIfaceToTable(name));
+			}
+			setupRule(iface);
+			mIntfState.put(name, addrs);
+			return true;
+		}
+
+		return false;
+	}
+
+	/* iface has disappeared: clean and release its table */
+	private void releaseInterface(String name) {
+		mIntfState.remove(name);
+		GatewayResolver.getInstance().invalidate(name);
+
+		TableAllocator allocator = TableAllocator.getInstance();
+		if (!allocator.hasTable(name)) {
+			return;
+		}
+
+		int table = allocator.getTable(name);
+		RouteTransaction tx = new RouteTransaction();
+		IPRouteUtils.resetTable(table, tx);
+		tx.commit(false);
+		routingState.forget(table);
+		allocator.release(name);
+		HandoverLatency.getInstance().mark(HandoverLatency.Stage.RESET, name);
+	}
+
+	public boolean monitorInterfaces() {
+		boolean update = false;
+		List<String> present = new ArrayList<>();
+		try {
+			for (Iface iface : interfaces.getInterfaces()) {
+				present.add(iface.getName());
+				update |= checkInterface(iface, false);
+			}
+		} catch (IOException e) {
+			return false;
+		}
+
+		for (String name : TableAllocator.getInstance().getVanished(present)) {
+			releaseInterface(name);
+		}
+		// a new interface with the same name will be set up from scratch
+		mIntfState.keySet().retainAll(present);
+
+		return update;
+	}
+
+	/**
+	 * Only check the interface concerned by an event of IPMonitor.
+	 *
+	 * @return true if the routes of this interface had to be updated
+	 */
+	public boolean onIPEvent(IPEvent event) {
+		if (event.iface == null) {
+			return false;
+		}
+
+		if (event.type == IPEvent.Type.LINK && event.deleted) {
+			releaseInterface(event.iface);
+			return false;
+		}
+
+		/*
+		 * The gateway is often known after the address, and it can change in
+		 * any table read by GatewayResolver (main, per network ones), as a
+		 * default route or not: any route via a gateway out of our own table
+		 * sets up the rules again. Routes without a gateway cannot change it.
+		 */
+		boolean force = false;
+		if (event.type == IPEvent.Type.ROUTE) {
+			if (event.gateway == null || event.table == IPEvent.TABLE_LOCAL
+					|| mIntfState.containsKey(event.iface)
+					&& event.table == IPRouteUtils.mapIfaceToTable(event.iface)) {
+				return false;
+			}
+			GatewayResolver.getInstance().invalidate(event.iface);
+			force = enabled && mIntfState.containsKey(event.iface);
+		}
+
+		try {
+			Iface iface = interfaces.getByName(event.iface);
+			if (iface == null) {
+				return false;
+			}
+			return checkInterface(iface, force);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
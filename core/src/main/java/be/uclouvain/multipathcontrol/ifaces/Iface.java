@@ -0,0 +1,93 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.ifaces;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of a network interface: its name and addresses.
+ */
+public class Iface {
+
+	public static class Address {
+		public final InetAddress address;
+		public final int prefix;
+
+		public Address(InetAddress address, int prefix) {
+			this.address = address;
+			this.prefix = prefix;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Address)) {
+				return false;
+			}
+			Address other = (Address) o;
+			return prefix == other.prefix && address.equals(other.address);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * address.hashCode() + prefix;
+		}
+
+		@Override
+		public String toString() {
+			return address.getHostAddress() + '/' + prefix;
+		}
+	}
+
+	private final String name;
+	private final boolean up;
+	private final boolean loopback;
+	private final List<Address> addresses;
+
+	public Iface(String name, boolean up, boolean loopback, List<Address> addresses) {
+		this.name = name;
+		this.up = up;
+		this.loopback = loopback;
+		this.addresses = Collections.unmodifiableList(addresses);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isUp() {
+		return up;
+	}
+
+	public boolean isLoopback() {
+		return loopback;
+	}
+
+	public List<Address> getAddresses() {
+		return addresses;
+	}
+
+	@Override
+	public String toString() {
+		return name + ' ' + addresses;
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.ifaces;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where IPRoute looks for the interfaces: the system (java.net), or a fake
+ * one on a build host.
+ */
+public interface InterfaceSource {
+
+	List<Iface> getInterfaces() throws IOException;
+
+	/* @return null if there is no interface with this name */
+	Iface getByName(String name) throws IOException;
+}
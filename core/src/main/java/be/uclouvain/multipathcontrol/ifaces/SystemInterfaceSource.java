@@ -0,0 +1,63 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.ifaces;
+
+import java.io.IOException;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Interfaces of this host, from java.net.NetworkInterface.
+ */
+public class SystemInterfaceSource implements InterfaceSource {
+
+	private static Iface toIface(NetworkInterface iface) throws IOException {
+		List<Iface.Address> addresses = new ArrayList<>();
+		for (InterfaceAddress intfAddr : iface.getInterfaceAddresses()) {
+			addresses.add(new Iface.Address(intfAddr.getAddress(), intfAddr.getNetworkPrefixLength()));
+		}
+		return new Iface(iface.getName(), iface.isUp(), iface.isLoopback(), addresses);
+	}
+
+	@Override
+	public List<Iface> getInterfaces() throws IOException {
+		List<Iface> ifaces = new ArrayList<>();
+		Enumeration<NetworkInterface> all = NetworkInterface.getNetworkInterfaces();
+		// null if there is no interface at all
+		if (all == null) {
+			return ifaces;
+		}
+		for (NetworkInterface iface : Collections.list(all)) {
+			ifaces.add(toIface(iface));
+		}
+		return ifaces;
+	}
+
+	@Override
+	public Iface getByName(String name) throws IOException {
+		NetworkInterface iface = NetworkInterface.getByName(name);
+		return iface == null ? null : toIface(iface);
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+import be.uclouvain.multipathcontrol.system.Clock;
+import be.uclouvain.multipathcontrol.system.IPRouteUtils;
+
+/**
+ * Time from the first event of a handover (CONNECTIVITY_ACTION or ip
+ * monitor) to each stage of the reconfiguration, per type of interface.
+ *
+ * Only the first time a stage is reached for a type of interface is kept
+ * for a handover, and only until its events have been handled (settle()):
+ * e.g. the HIPRI renewals done later are not handovers.
+ */
+public class HandoverLatency {
+
+	public enum Stage {
+		/* an interface with new addresses has been found */
+		DETECTED,
+		/* the table of an interface which is gone has been cleaned */
+		RESET,
+		/* the rules and routes of an interface have been set up */
+		SETUP,
+		/* the route via HIPRI has been requested, cellular is kept alive */
+		HIPRI
+	}
+
+	public enum Network {
+		/* wlan and all other interfaces which are not cellular ones */
+		WIFI,
+		MOBILE
+	}
+
+	private static final int NB_NETWORKS = Network.values().length;
+	private static final int NB_SLOTS = Stage.values().length * NB_NETWORKS;
+
+	private static HandoverLatency instance = null;
+
+	private final Clock clock;
+	private final LatencyHistogram[] histograms = new LatencyHistogram[NB_SLOTS];
+	/* latencies (us) of the current handover, -1 if a stage is not reached */
+	private final long[] current = new long[NB_SLOTS];
+
+	/* nanoTime() of the first event of the current handover, -1 if none */
+	private long origin = -1;
+	/* the events of the current handover have been handled */
+	private boolean settled = false;
+
+	public static synchronized HandoverLatency getInstance() {
+		if (instance == null) {
+			instance = new HandoverLatency(Clock.SYSTEM);
+		}
+		return instance;
+	}
+
+	public static synchronized void setInstance(HandoverLatency latency) {
+		instance = latency;
+	}
+
+	public HandoverLatency(Clock clock) {
+		this.clock = clock;
+		for (int i = 0; i < NB_SLOTS; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		Arrays.fill(current, -1);
+	}
+
+	private static int slot(Stage stage, Network network) {
+		return stage.ordinal() * NB_NETWORKS + network.ordinal();
+	}
+
+	public static Network getNetwork(String iface) {
+		return IPRouteUtils.isMobile(iface) ? Network.MOBILE : Network.WIFI;
+	}
+
+	/* For begin(), when an event is received on another thread */
+	public long now() {
+		return clock.nanoTime();
+	}
+
+	/* An event has been received: starts a handover if none is in progress */
+	public void begin() {
+		begin(clock.nanoTime());
+	}
+
+	/*
+	 * @param time now() when the event has been received
+	 * @return true if a new handover has been started
+	 */
+	public synchronized boolean begin(long time) {
+		if (origin != -1 && !settled) {
+			return false;
+		}
+		origin = time;
+		settled = false;
+		Arrays.fill(current, -1);
+		return true;
+	}
+
+	/* The event which has started the handover did not change anything */
+	public synchronized void cancel() {
+		origin = -1;
+	}
+
+	/* The events have been handled: the next one starts a new handover */
+	public synchronized void settle() {
+		settled = true;
+	}
+
+	public void mark(Stage stage, String iface) {
+		mark(stage, getNetwork(iface));
+	}
+
+	public synchronized void mark(Stage stage, Network network) {
+		int slot = slot(stage, network);
+		if (origin == -1 || settled || current[slot] != -1) {
+			return;
+		}
+		long micros = (clock.nanoTime() - origin) / 1000;
+		current[slot] = micros;
+		histograms[slot].record(micros);
+	}
+
+	private static String key(Stage stage, Network network) {
+		String name = stage.name();
+		return "ho" + name.charAt(0) + name.substring(1).toLowerCase(Locale.US)
+				+ (network == Network.WIFI ? "Wifi" : "Mobile");
+	}
+
+	/* Current handover and percentiles of the past ones, in us */
+	public synchronized void putTo(StatsRecord record) {
+		for (Stage stage : Stage.values()) {
+			for (Network network : Network.values()) {
+				int slot = slot(stage, network);
+				LatencyHistogram histogram = histograms[slot];
+				if (histogram.getCount() == 0) {
+					continue;
+				}
+				String key = key(stage, network);
+				if (current[slot] != -1) {
+					record.putLong(key + "Us", current[slot]);
+				}
+				record.putLong(key + "P50Us", histogram.getPercentile(0.5));
+				record.putLong(key + "P99Us", histogram.getPercentile(0.99));
+			}
+		}
+	}
+
+	public synchronized void dump(PrintWriter writer) {
+		writer.println("Handover latency (ms since the first event):");
+		writer.println(String.format(Locale.US, "  %-9s %-7s %7s %9s %9s %9s %9s %9s",
+				"stage", "iface", "count", "mean", "p50", "p90", "p99", "max"));
+		for (Stage stage : Stage.values()) {
+			for (Network network : Network.values()) {
+				LatencyHistogram h = histograms[slot(stage, network)];
+				writer.println(String.format(Locale.US,
+						"  %-9s %-7s %7d %9.1f %9.1f %9.1f %9.1f %9.1f", stage, network,
+						h.getCount(), h.getMean() / 1e3, h.getPercentile(0.5) / 1e3,
+						h.getPercentile(0.9) / 1e3, h.getPercentile(0.99) / 1e3,
+						h.getMax() / 1e3));
+			}
+		}
+	}
+}
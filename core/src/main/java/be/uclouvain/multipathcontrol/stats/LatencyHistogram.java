@@ -0,0 +1,104 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import java.util.Arrays;
+
+/**
+ * Latencies in us, in a fixed number of buckets: 8 per power of two, so
+ * that a percentile is at most 12.5% above the real value. Values above
+ * ~4.7 hours fall in the last bucket. Not thread-safe.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int NB_BUCKETS = 256;
+
+	private final long[] counts = new long[NB_BUCKETS];
+	private long count = 0;
+	private long sum = 0;
+	private long max = 0;
+
+	static int bucket(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) Math.max(micros, 0);
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return Math.min((exp - SUB_BITS + 1) * SUB_BUCKETS + sub, NB_BUCKETS - 1);
+	}
+
+	/* @return the highest value of this bucket */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS - 1) {
+			return bucket;
+		}
+		if (bucket == NB_BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		int next = bucket + 1;
+		int exp = next / SUB_BUCKETS + SUB_BITS - 1;
+		return ((long) (SUB_BUCKETS + next % SUB_BUCKETS) << (exp - SUB_BITS)) - 1;
+	}
+
+	public void record(long micros) {
+		counts[bucket(micros)]++;
+		count++;
+		sum += micros;
+		max = Math.max(max, micros);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public long getMean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	/* @return a value above p (0-1) of the latencies, 0 if empty */
+	public long getPercentile(double p) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p * count));
+		long seen = 0;
+		for (int i = 0; i < NB_BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		max = 0;
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The samples of a category: timestamp and position in the SegmentedLog of
+ * each one, in a file of fixed-size entries. Appending is O(1), a time range
+ * is found by binary search: the timestamps are expected to grow.
+ *
+ * When maxEntries is reached, the oldest half is removed: their records
+ * have most likely been removed from the log too.
+ */
+public class SampleIndex {
+
+	public interface Visitor {
+		/* @return false to stop reading */
+		boolean visit(long timestamp, long position);
+	}
+
+	/* timestamp, position */
+	static final int ENTRY = 16;
+	/* entries read at once when enumerating */
+	private static final int PAGE = 256;
+
+	private final File file;
+	private final long maxEntries;
+	private FileChannel channel;
+	private long entries;
+
+	private final ByteBuffer entry = ByteBuffer.allocate(ENTRY);
+	private final ByteBuffer page = ByteBuffer.allocate(ENTRY * PAGE);
+
+	public SampleIndex(File file, long maxEntries) throws IOException {
+		if (maxEntries < 2) {
+			throw new IllegalArgumentException("Invalid index size");
+		}
+		this.file = file;
+		this.maxEntries = maxEntries;
+		open();
+	}
+
+	private void open() throws IOException {
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		long size = channel.size();
+		entries = size / ENTRY;
+		// partial entry: the app has been killed while appending it
+		if (size % ENTRY != 0) {
+			channel.truncate(entries * ENTRY);
+		}
+	}
+
+	public synchronized long size() {
+		return entries;
+	}
+
+	/* @return the timestamp of the last sample, Long.MIN_VALUE if none */
+	public synchronized long getLastTimestamp() throws IOException {
+		return entries == 0 ? Long.MIN_VALUE : timestampAt(entries - 1);
+	}
+
+	private void readFully(ByteBuffer dst, long offset) throws IOException {
+		while (dst.hasRemaining()) {
+			if (channel.read(dst, offset + dst.position()) < 0) {
+				throw new IOException("Unexpected end of " + file);
+			}
+		}
+	}
+
+	private long timestampAt(long i) throws IOException {
+		entry.clear();
+		entry.limit(8);
+		readFully(entry, i * ENTRY);
+		return entry.getLong(0);
+	}
+
+	public synchronized void append(long timestamp, long position) throws IOException {
+		if (entries >= maxEntries) {
+			compact(maxEntries / 2);
+		}
+
+		entry.clear();
+		entry.putLong(timestamp);
+		entry.putLong(position);
+		entry.flip();
+		while (entry.hasRemaining()) {
+			channel.write(entry, entries * ENTRY + entry.position());
+		}
+		entries++;
+	}
+
+	/* Keep the last 'keep' entries, in a new file renamed over this one */
+	private void compact(long keep) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileChannel out = new RandomAccessFile(tmp, "rw").getChannel();
+		try {
+			out.truncate(0);
+			long from = (entries - keep) * ENTRY;
+			long count = keep * ENTRY;
+			long done = 0;
+			while (done < count) {
+				done += channel.transferTo(from + done, count - done, out);
+			}
+			out.force(false);
+		} finally {
+			out.close();
+		}
+
+		channel.close();
+		if (!tmp.renameTo(file)) {
+			// keep going with the entries we had
+			open();
+			throw new IOException("Cannot replace " + file);
+		}
+		open();
+	}
+
+	/* @return the first entry at or after timestamp */
+	private long lowerBound(long timestamp) throws IOException {
+		long low = 0;
+		long high = entries;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (timestampAt(mid) < timestamp) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/* Visits the samples from 'from' to 'to' (included), oldest first */
+	public synchronized void read(long from, long to, Visitor visitor) throws IOException {
+		long i = lowerBound(from);
+		while (i < entries) {
+			int count = (int) Math.min(PAGE, entries - i);
+			page.clear();
+			page.limit(count * ENTRY);
+			readFully(page, i * ENTRY);
+			page.flip();
+			for (int j = 0; j < count; j++) {
+				long timestamp = page.getLong();
+				long position = page.getLong();
+				if (timestamp > to || !visitor.visit(timestamp, position)) {
+					return;
+				}
+			}
+			i += count;
+		}
+	}
+
+	public synchronized void sync() throws IOException {
+		channel.force(false);
+	}
+
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,448 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of timestamped records, in segment files of at most
+ * segmentSize bytes (unless a record is larger): only the last maxSegments
+ * ones are kept.
+ *
+ * Each record is: length of the data, CRC32 of the timestamp and the data,
+ * timestamp, data. A record which has not been written completely (e.g.
+ * the app was killed) is removed when the log is opened again.
+ *
+ * Records are found by time through the first timestamp of each segment
+ * and a sparse index of the segments (a record every INDEX_INTERVAL bytes):
+ * the timestamps are expected to grow. They are also found by position,
+ * returned by append(): sequence number of the segment and offset in it.
+ */
+public class SegmentedLog {
+
+	public interface Visitor {
+		/* @return false to stop reading */
+		boolean visit(long position, long timestamp, byte[] data);
+	}
+
+	private static final String SUFFIX = ".seg";
+	/* length, crc, timestamp */
+	public static final int HEADER = 16;
+	private static final int INDEX_INTERVAL = 4096;
+
+	private static class Segment {
+		final long seq;
+		final File file;
+		long size;
+		/* -1 if the segment is empty */
+		long firstTimestamp = -1;
+		/* timestamps and offsets of the sparse index, null if not built yet */
+		long[] indexTimes;
+		long[] indexOffsets;
+		int indexSize;
+		long nextIndexOffset;
+
+		Segment(long seq, File file) {
+			this.seq = seq;
+			this.file = file;
+		}
+
+		void clearIndex() {
+			indexTimes = new long[16];
+			indexOffsets = new long[16];
+			indexSize = 0;
+			nextIndexOffset = 0;
+		}
+
+		void index(long timestamp, long offset, int recordSize) {
+			if (firstTimestamp == -1) {
+				firstTimestamp = timestamp;
+			}
+			if (offset >= nextIndexOffset) {
+				if (indexSize == indexTimes.length) {
+					indexTimes = Arrays.copyOf(indexTimes, indexSize * 2);
+					indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+				}
+				indexTimes[indexSize] = timestamp;
+				indexOffsets[indexSize] = offset;
+				indexSize++;
+				nextIndexOffset = offset + recordSize + INDEX_INTERVAL;
+			}
+		}
+
+		/* @return offset of the last indexed record not after timestamp */
+		long floorOffset(long timestamp) {
+			long offset = 0;
+			for (int i = 0; i < indexSize && indexTimes[i] <= timestamp; i++) {
+				offset = indexOffsets[i];
+			}
+			return offset;
+		}
+	}
+
+	private final File dir;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final List<Segment> segments = new ArrayList<>();
+	private final CRC32 crc = new CRC32();
+
+	private FileChannel channel;
+	/* reused for each record */
+	private ByteBuffer buffer = ByteBuffer.allocate(1024);
+	private final ByteBuffer header = ByteBuffer.allocate(HEADER);
+
+	public SegmentedLog(File dir, int segmentSize, int maxSegments) throws IOException {
+		if (segmentSize <= HEADER || maxSegments < 1) {
+			throw new IllegalArgumentException("Invalid log size");
+		}
+		this.dir = dir;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		open();
+	}
+
+	private void open() throws IOException {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (!name.endsWith(SUFFIX)) {
+					continue;
+				}
+				try {
+					long seq = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+					segments.add(new Segment(seq, file));
+				} catch (NumberFormatException ignored) {}
+			}
+		}
+
+		// ordered by sequence number
+		Collections.sort(segments, new Comparator<Segment>() {
+			@Override
+			public int compare(Segment a, Segment b) {
+				return a.seq < b.seq ? -1 : a.seq == b.seq ? 0 : 1;
+			}
+		});
+
+		if (segments.isEmpty()) {
+			segments.add(new Segment(0, segmentFile(0)));
+		}
+
+		for (int i = 0; i < segments.size() - 1; i++) {
+			Segment segment = segments.get(i);
+			segment.size = segment.file.length();
+			segment.firstTimestamp = readFirstTimestamp(segment);
+		}
+
+		Segment last = segments.get(segments.size() - 1);
+		channel = new RandomAccessFile(last.file, "rw").getChannel();
+		recover(last);
+	}
+
+	private File segmentFile(long seq) {
+		return new File(dir, String.format(Locale.US, "%016d%s", seq, SUFFIX));
+	}
+
+	private long readFirstTimestamp(Segment segment) throws IOException {
+		if (segment.size < HEADER) {
+			return -1;
+		}
+		RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+		try {
+			file.seek(8);
+			return file.readLong();
+		} finally {
+			file.close();
+		}
+	}
+
+	/* Index the active segment and remove its partial tail, if any */
+	private void recover(Segment segment) throws IOException {
+		segment.size = channel.size();
+		segment.firstTimestamp = -1;
+		segment.clearIndex();
+
+		long offset = 0;
+		byte[] data;
+		while ((data = readRecord(channel, offset, segment.size)) != null) {
+			int recordSize = HEADER + data.length;
+			segment.index(header.getLong(8), offset, recordSize);
+			offset += recordSize;
+		}
+
+		if (offset < segment.size) {
+			channel.truncate(offset);
+			segment.size = offset;
+		}
+	}
+
+	/* @return the data of the record at offset, null if it is not valid */
+	private byte[] readRecord(FileChannel ch, long offset, long size) throws IOException {
+		if (offset + HEADER > size) {
+			return null;
+		}
+		header.clear();
+		while (header.hasRemaining()) {
+			if (ch.read(header, offset + header.position()) < 0) {
+				return null;
+			}
+		}
+
+		int length = header.getInt(0);
+		if (length < 0 || offset + HEADER + length > size) {
+			return null;
+		}
+		byte[] data = new byte[length];
+		ByteBuffer dst = ByteBuffer.wrap(data);
+		while (dst.hasRemaining()) {
+			if (ch.read(dst, offset + HEADER + dst.position()) < 0) {
+				return null;
+			}
+		}
+
+		crc.reset();
+		crc.update(header.array(), 8, 8);
+		crc.update(data, 0, length);
+		if ((int) crc.getValue() != header.getInt(4)) {
+			return null;
+		}
+		return data;
+	}
+
+	private Segment active() {
+		return segments.get(segments.size() - 1);
+	}
+
+	/* If it fails, the active segment stays the same: the next append rolls */
+	private void roll() throws IOException {
+		long seq = active().seq + 1;
+		Segment segment = new Segment(seq, segmentFile(seq));
+		FileChannel next = new RandomAccessFile(segment.file, "rw").getChannel();
+		try {
+			next.truncate(0);
+			// sync() only forces the active segment: this one is not anymore
+			channel.force(false);
+		} catch (IOException e) {
+			next.close();
+			throw e;
+		}
+		channel.close();
+
+		segment.clearIndex();
+		segments.add(segment);
+		channel = next;
+
+		while (segments.size() > maxSegments) {
+			Segment oldest = segments.remove(0);
+			if (!oldest.file.delete()) {
+				throw new IOException("Cannot delete " + oldest.file);
+			}
+		}
+	}
+
+	private static long position(Segment segment, long offset) {
+		return segment.seq << 32 | offset;
+	}
+
+	/* @return the position of the record */
+	public synchronized long append(long timestamp, byte[] data) throws IOException {
+		int recordSize = HEADER + data.length;
+		// a record larger than segmentSize is alone in its segment
+		if (active().size > 0 && active().size + recordSize > segmentSize) {
+			roll();
+		}
+
+		if (buffer.capacity() < recordSize) {
+			buffer = ByteBuffer.allocate(Math.max(recordSize, buffer.capacity() * 2));
+		}
+		buffer.clear();
+		buffer.putInt(data.length);
+		buffer.putInt(0);
+		buffer.putLong(timestamp);
+		buffer.put(data);
+		crc.reset();
+		crc.update(buffer.array(), 8, 8 + data.length);
+		buffer.putInt(4, (int) crc.getValue());
+		buffer.flip();
+
+		Segment segment = active();
+		long offset = segment.size;
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, offset + buffer.position());
+		}
+		segment.size += recordSize;
+		segment.index(timestamp, offset, recordSize);
+		return position(segment, offset);
+	}
+
+	/* @return the data of the record at this position, null if removed */
+	public synchronized byte[] readAt(long position) throws IOException {
+		long seq = position >>> 32;
+		long offset = position & 0xffffffffL;
+		for (Segment segment : segments) {
+			if (segment.seq != seq) {
+				continue;
+			}
+			if (segment == active()) {
+				return readRecord(channel, offset, segment.size);
+			}
+			FileChannel ch = new RandomAccessFile(segment.file, "r").getChannel();
+			try {
+				return readRecord(ch, offset, segment.size);
+			} finally {
+				ch.close();
+			}
+		}
+		return null;
+	}
+
+	/* @return true if no record has been appended */
+	public synchronized boolean isEmpty() {
+		return segments.size() == 1 && active().size == 0;
+	}
+
+	/* Records are in the page cache after append(): this waits for the disk */
+	public synchronized void sync() throws IOException {
+		channel.force(false);
+	}
+
+	/*
+	 * Visits the records from 'from' to 'to' (included), oldest first.
+	 */
+	public synchronized void read(long from, long to, Visitor visitor) throws IOException {
+		// last segment starting before 'from': the previous ones are older
+		int first = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			long start = segments.get(i).firstTimestamp;
+			if (start != -1 && start <= from) {
+				first = i;
+			}
+		}
+
+		for (int i = first; i < segments.size(); i++) {
+			Segment segment = segments.get(i);
+			if (segment.firstTimestamp == -1) {
+				continue;
+			}
+			if (segment.firstTimestamp > to) {
+				return;
+			}
+			if (!readSegment(segment, -1, from, to, visitor)) {
+				return;
+			}
+		}
+	}
+
+	/* Visits the records from the one at this position to the last one */
+	public synchronized void readFrom(long position, Visitor visitor) throws IOException {
+		long seq = position >>> 32;
+		for (Segment segment : segments) {
+			if (segment.seq < seq) {
+				continue;
+			}
+			long offset = segment.seq == seq ? position & 0xffffffffL : 0;
+			if (!readSegment(segment, offset, Long.MIN_VALUE, Long.MAX_VALUE, visitor)) {
+				return;
+			}
+		}
+	}
+
+	/*
+	 * @param offset of the first record, -1 to find it with the index
+	 * @return false if the visitor or the end of the range stopped the reading
+	 */
+	private boolean readSegment(Segment segment, long offset, long from, long to, Visitor visitor)
+			throws IOException {
+		boolean isActive = segment == active();
+		FileChannel ch = isActive ? channel : new RandomAccessFile(segment.file, "r").getChannel();
+		try {
+			// sealed segments are indexed the first time they are read entirely
+			boolean indexing = segment.indexTimes == null && offset <= 0;
+			if (indexing) {
+				segment.clearIndex();
+				offset = 0;
+			} else if (offset == -1) {
+				offset = segment.floorOffset(from);
+			}
+
+			byte[] data;
+			while ((data = readRecord(ch, offset, segment.size)) != null) {
+				long timestamp = header.getLong(8);
+				int recordSize = HEADER + data.length;
+				if (indexing) {
+					segment.index(timestamp, offset, recordSize);
+				}
+				offset += recordSize;
+
+				if (timestamp < from) {
+					continue;
+				}
+				if (timestamp > to || !visitor.visit(position(segment, offset - recordSize),
+						timestamp, data)) {
+					if (indexing) {
+						// partially built: start again next time
+						segment.indexTimes = null;
+					}
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			if (!isActive) {
+				ch.close();
+			}
+		}
+	}
+
+	/* @return true if a record of this length would not start a new segment */
+	public synchronized boolean fits(int length) {
+		long size = active().size;
+		return size == 0 || size + HEADER + length <= segmentSize;
+	}
+
+	/* @return total size of the segments, in bytes */
+	public synchronized long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,419 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact encoding of a sequence of StatsRecord: each record only holds the
+ * fields which changed since the previous one (numbers as a difference),
+ * keys are replaced by ids and strings are written once then referenced.
+ *
+ * A keyframe starts a new chain: it is encoded against an empty record and
+ * an empty dictionary. Each other record gives the distance (bytes, in the
+ * SegmentedLog) back to its keyframe, to be decoded from there.
+ */
+public class StatsCodec {
+
+	static final byte FORMAT = 1;
+
+	private static final int FLAG_KEYFRAME = 0x1;
+
+	private static final int OP_REMOVE = 0;
+	private static final int OP_INT = 1;
+	private static final int OP_INT_DELTA = 2;
+	private static final int OP_LONG = 3;
+	private static final int OP_LONG_DELTA = 4;
+	private static final int OP_TRUE = 5;
+	private static final int OP_FALSE = 6;
+	private static final int OP_STRING = 7;
+	private static final int OP_BITS = 3;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/*
+	 * Keys with a fixed id: append only, their index is stored in the logs.
+	 * Other keys are written in the dictionary of their chain.
+	 */
+	private static final String[] KEYS = {
+		"timestamp", "wifiMac", "mergedEvents", "extIp", "airplane",
+		"cellBer", "cellSignal4", "cellSignaldBm", "cellType", "dataActivity",
+		"dataState", "gsmCellLac", "gsmFullCellId", "gsmRNC", "gsmShortCellId",
+		"ifaces", "ipWifi4", "ipRMNet4", "netstat", "netAvailable",
+		"netConnected", "netDState", "netExtras", "netFailover", "netReason",
+		"netRoaming", "netType", "procMPTCP", "procMPTCPFM", "simOperator",
+		"simState", "wifiBSSID", "wifiFreq", "wifiSignal4", "wifiSignalRSSI",
+		"wifiSpeed", "wifiSSID", "wifiState",
+	};
+	private static final Map<String, Integer> KEY_IDS = new HashMap<>();
+	static {
+		for (int i = 0; i < KEYS.length; i++) {
+			KEY_IDS.put(KEYS[i], i);
+		}
+	}
+
+	/* State shared by the encoder and the decoder: the current chain */
+	private static class Chain {
+		final Map<String, Object> fields = new LinkedHashMap<>();
+		final List<String> strings = new ArrayList<>();
+		final Map<String, Integer> stringIds = new HashMap<>();
+		long timestamp;
+
+		void reset() {
+			fields.clear();
+			strings.clear();
+			stringIds.clear();
+			timestamp = 0;
+		}
+
+		void addString(String value) {
+			stringIds.put(value, strings.size());
+			strings.add(value);
+		}
+	}
+
+	/* @return true if the data is a keyframe, or cannot be decoded anyway */
+	public static boolean isKeyframe(byte[] data) {
+		return data.length < 2 || data[0] != FORMAT || (data[1] & FLAG_KEYFRAME) != 0;
+	}
+
+	/* @return distance (bytes) back to the keyframe of this record, 0 if none */
+	public static long getKeyframeDistance(byte[] data) throws IOException {
+		if (isKeyframe(data)) {
+			return 0;
+		}
+		return new Reader(data, 2).readVarLong();
+	}
+
+	public static class Encoder {
+		private final Chain chain = new Chain();
+		private final int keyframeInterval;
+		private int chainLength = 0;
+		/* bytes since the start of the keyframe, in the log */
+		private long chainBytes = 0;
+		private byte[] buffer = new byte[1024];
+		private int size;
+
+		public Encoder(int keyframeInterval) {
+			this.keyframeInterval = keyframeInterval;
+		}
+
+		/* The next record will be a keyframe, e.g. at the start of a segment */
+		public void reset() {
+			chainLength = 0;
+		}
+
+		/* @return true if the next record will be a keyframe */
+		public boolean isChainFull() {
+			return chainLength == 0 || chainLength >= keyframeInterval;
+		}
+
+		/*
+		 * @param overhead bytes added by the log to each record, to know the
+		 * distance to the keyframe
+		 */
+		public byte[] encode(StatsRecord record, int overhead) {
+			boolean keyframe = isChainFull();
+			if (keyframe) {
+				chain.reset();
+				chainLength = 0;
+				chainBytes = 0;
+			}
+
+			size = 0;
+			writeByte(FORMAT);
+			writeByte(keyframe ? FLAG_KEYFRAME : 0);
+			if (!keyframe) {
+				writeVarLong(chainBytes);
+			}
+			writeString(record.getCategory().name());
+			writeVarLong(zigzag(record.getTimestamp() - chain.timestamp));
+			chain.timestamp = record.getTimestamp();
+
+			Map<String, Object> fields = record.getFields();
+			int nbOps = 0;
+			for (String key : chain.fields.keySet()) {
+				if (!fields.containsKey(key)) {
+					nbOps++;
+				}
+			}
+			for (Map.Entry<String, Object> field : fields.entrySet()) {
+				if (!field.getValue().equals(chain.fields.get(field.getKey()))) {
+					nbOps++;
+				}
+			}
+			writeVarLong(nbOps);
+
+			List<String> removed = new ArrayList<>();
+			for (String key : chain.fields.keySet()) {
+				if (!fields.containsKey(key)) {
+					removed.add(key);
+				}
+			}
+			for (String key : removed) {
+				writeKey(key, OP_REMOVE);
+				chain.fields.remove(key);
+			}
+
+			for (Map.Entry<String, Object> field : fields.entrySet()) {
+				String key = field.getKey();
+				Object value = field.getValue();
+				Object previous = chain.fields.get(key);
+				if (value.equals(previous)) {
+					continue;
+				}
+
+				if (value instanceof Integer) {
+					if (previous instanceof Integer) {
+						writeKey(key, OP_INT_DELTA);
+						writeVarLong(zigzag((long) (Integer) value - (Integer) previous));
+					} else {
+						writeKey(key, OP_INT);
+						writeVarLong(zigzag((Integer) value));
+					}
+				} else if (value instanceof Long) {
+					if (previous instanceof Long) {
+						writeKey(key, OP_LONG_DELTA);
+						writeVarLong(zigzag((Long) value - (Long) previous));
+					} else {
+						writeKey(key, OP_LONG);
+						writeVarLong(zigzag((Long) value));
+					}
+				} else if (value instanceof Boolean) {
+					writeKey(key, (Boolean) value ? OP_TRUE : OP_FALSE);
+				} else {
+					writeKey(key, OP_STRING);
+					writeString(value.toString());
+				}
+				chain.fields.put(key, value);
+			}
+
+			chainLength++;
+			chainBytes += overhead + size;
+			return Arrays.copyOf(buffer, size);
+		}
+
+		private void ensure(int more) {
+			if (size + more > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(size + more, buffer.length * 2));
+			}
+		}
+
+		private void writeByte(int b) {
+			ensure(1);
+			buffer[size++] = (byte) b;
+		}
+
+		private void writeVarLong(long value) {
+			ensure(10);
+			while ((value & ~0x7fL) != 0) {
+				buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			buffer[size++] = (byte) value;
+		}
+
+		/* id of the string in the chain, or a new id followed by the string */
+		private void writeString(String value) {
+			Integer id = chain.stringIds.get(value);
+			if (id != null) {
+				writeVarLong(id);
+				return;
+			}
+			writeVarLong(chain.strings.size());
+			chain.addString(value);
+			byte[] bytes = value.getBytes(UTF8);
+			writeVarLong(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, size, bytes.length);
+			size += bytes.length;
+		}
+
+		/* fixed id of the key, else KEYS.length + its string id */
+		private void writeKey(String key, int op) {
+			Integer id = KEY_IDS.get(key);
+			if (id != null) {
+				writeVarLong((long) id << OP_BITS | op);
+			} else {
+				writeVarLong((long) KEYS.length << OP_BITS | op);
+				writeString(key);
+			}
+		}
+	}
+
+	private static class Reader {
+		private final byte[] data;
+		private int pos;
+
+		Reader(byte[] data, int pos) {
+			this.data = data;
+			this.pos = pos;
+		}
+
+		int readByte() throws IOException {
+			if (pos >= data.length) {
+				throw new IOException("Truncated stats record");
+			}
+			return data[pos++] & 0xff;
+		}
+
+		long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				value |= (long) (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Invalid varint");
+		}
+
+		String readString(Chain chain) throws IOException {
+			long id = readVarLong();
+			if (id < chain.strings.size()) {
+				return chain.strings.get((int) id);
+			}
+			if (id != chain.strings.size()) {
+				throw new IOException("Unknown string id: " + id);
+			}
+			long length = readVarLong();
+			if (length < 0 || length > data.length - pos) {
+				throw new IOException("Invalid string length: " + length);
+			}
+			String value = new String(data, pos, (int) length, UTF8);
+			pos += length;
+			chain.addString(value);
+			return value;
+		}
+	}
+
+	/* Records must be given in the order of the log, from a keyframe */
+	public static class Decoder {
+		private final Chain chain = new Chain();
+		private boolean inChain = false;
+
+		public void reset() {
+			inChain = false;
+		}
+
+		public StatsRecord decode(byte[] data) throws IOException {
+			if (data.length < 2 || data[0] != FORMAT) {
+				throw new IOException("Unknown stats record format");
+			}
+
+			Reader in = new Reader(data, 2);
+			if ((data[1] & FLAG_KEYFRAME) != 0) {
+				chain.reset();
+				inChain = true;
+			} else if (!inChain) {
+				throw new IOException("Stats record without its keyframe");
+			} else {
+				in.readVarLong();
+			}
+
+			StatsCategories category;
+			try {
+				category = StatsCategories.valueOf(in.readString(chain));
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Unknown stats category", e);
+			}
+			chain.timestamp += unzigzag(in.readVarLong());
+
+			long nbOps = in.readVarLong();
+			for (long i = 0; i < nbOps; i++) {
+				long code = in.readVarLong();
+				int op = (int) (code & ((1 << OP_BITS) - 1));
+				long id = code >>> OP_BITS;
+				String key;
+				if (id < KEYS.length) {
+					key = KEYS[(int) id];
+				} else if (id == KEYS.length) {
+					key = in.readString(chain);
+				} else {
+					throw new IOException("Unknown key id: " + id);
+				}
+
+				Object previous = chain.fields.get(key);
+				switch (op) {
+					case OP_REMOVE:
+						chain.fields.remove(key);
+						break;
+					case OP_INT:
+						chain.fields.put(key, (int) unzigzag(in.readVarLong()));
+						break;
+					case OP_INT_DELTA:
+						if (!(previous instanceof Integer)) {
+							throw new IOException("Delta without value: " + key);
+						}
+						chain.fields.put(key, (int) ((Integer) previous + unzigzag(in.readVarLong())));
+						break;
+					case OP_LONG:
+						chain.fields.put(key, unzigzag(in.readVarLong()));
+						break;
+					case OP_LONG_DELTA:
+						if (!(previous instanceof Long)) {
+							throw new IOException("Delta without value: " + key);
+						}
+						chain.fields.put(key, (Long) previous + unzigzag(in.readVarLong()));
+						break;
+					case OP_TRUE:
+					case OP_FALSE:
+						chain.fields.put(key, op == OP_TRUE);
+						break;
+					default:
+						chain.fields.put(key, in.readString(chain));
+						break;
+				}
+			}
+
+			StatsRecord record = new StatsRecord(category, chain.timestamp);
+			for (Map.Entry<String, Object> field : chain.fields.entrySet()) {
+				Object value = field.getValue();
+				if (value instanceof Integer) {
+					record.putInt(field.getKey(), (Integer) value);
+				} else if (value instanceof Long) {
+					record.putLong(field.getKey(), (Long) value);
+				} else if (value instanceof Boolean) {
+					record.putBoolean(field.getKey(), (Boolean) value);
+				} else {
+					record.putString(field.getKey(), (String) value);
+				}
+			}
+			return record;
+		}
+	}
+
+	private static long zigzag(long value) {
+		return value << 1 ^ value >> 63;
+	}
+
+	private static long unzigzag(long value) {
+		return value >>> 1 ^ -(value & 1);
+	}
+}
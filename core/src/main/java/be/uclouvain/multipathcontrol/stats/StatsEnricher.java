@@ -0,0 +1,223 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package be.uclouvain.multipathcontrol.stats;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fields which are slow to get (e.g. from the network) are computed in the
+ * background and added to their record: the record is committed to its
+ * StatsWriter slot once, when they are all known or at its deadline,
+ * without the missing ones. The slot keeps the records in order.
+ */
+public class StatsEnricher {
+
+	private final Executor executor;
+	private final ScheduledExecutorService timer;
+	/* not committed yet */
+	private final Set<Pending> pendings = new LinkedHashSet<>();
+
+	private long complete = 0;
+	private long expired = 0;
+
+	/* @param executor runs the tasks computing the fields */
+	public StatsEnricher(Executor executor) {
+		this.executor = executor;
+		this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "StatsEnricher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/*
+	 * @param slot where the record will be written
+	 * @param deadline ms from now to get the fields
+	 */
+	public Pending begin(StatsRecord record, StatsWriter.Slot slot, long deadline) {
+		final Pending pending = new Pending(record, slot);
+		synchronized (this) {
+			pendings.add(pending);
+		}
+		pending.timeout = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				pending.expire();
+			}
+		}, deadline, TimeUnit.MILLISECONDS);
+		return pending;
+	}
+
+	/* The sealed records are committed now, without the missing fields */
+	public void expireAll() {
+		List<Pending> all;
+		synchronized (this) {
+			all = new ArrayList<>(pendings);
+		}
+		for (Pending pending : all) {
+			pending.expire();
+		}
+	}
+
+	private synchronized void finished(Pending pending, boolean inTime) {
+		pendings.remove(pending);
+		if (inTime) {
+			complete++;
+		} else {
+			expired++;
+		}
+	}
+
+	public synchronized void dump(PrintWriter writer) {
+		writer.println(String.format(Locale.US,
+				"  enrichment: %d complete, %d expired, %d pending",
+				complete, expired, pendings.size()));
+	}
+
+	/**
+	 * The record is filled by its owner until seal(), the values of the tasks
+	 * are kept aside until then.
+	 */
+	public class Pending {
+		private final StatsRecord record;
+		private final StatsWriter.Slot slot;
+		private final Map<String, String> values = new LinkedHashMap<>();
+		private final List<FutureTask<String>> tasks = new ArrayList<>();
+		/* set just after the creation: it can expire before */
+		private volatile Future<?> timeout;
+		private boolean sealed = false;
+		private boolean expired = false;
+		private boolean written = false;
+
+		private Pending(StatsRecord record, StatsWriter.Slot slot) {
+			this.record = record;
+			this.slot = slot;
+		}
+
+		/* The value of task, if not null, will be put in the record under key */
+		public void addString(final String key, Callable<String> task) {
+			FutureTask<String> future = new FutureTask<String>(task) {
+				@Override
+				protected void done() {
+					onDone(key, this);
+				}
+			};
+			synchronized (this) {
+				if (sealed || expired) {
+					return;
+				}
+				tasks.add(future);
+			}
+			executor.execute(future);
+		}
+
+		private void onDone(String key, FutureTask<String> future) {
+			synchronized (this) {
+				tasks.remove(future);
+				if (written || future.isCancelled()) {
+					return;
+				}
+				try {
+					String value = future.get();
+					if (value != null) {
+						values.put(key, value);
+					}
+				} catch (ExecutionException ignored) {
+				} catch (InterruptedException ignored) {}
+
+				if (!sealed || !tasks.isEmpty()) {
+					return;
+				}
+				fill();
+			}
+			commit(true);
+		}
+
+		/* The owner has finished filling the record */
+		public void seal() {
+			boolean inTime;
+			synchronized (this) {
+				sealed = true;
+				if (written || !tasks.isEmpty()) {
+					return;
+				}
+				inTime = !expired;
+				fill();
+			}
+			commit(inTime);
+		}
+
+		private void expire() {
+			synchronized (this) {
+				if (written || expired) {
+					return;
+				}
+				expired = true;
+				for (FutureTask<String> task : new ArrayList<>(tasks)) {
+					task.cancel(true);
+				}
+				tasks.clear();
+				// else the owner is still filling the record: written by seal()
+				if (!sealed) {
+					return;
+				}
+				fill();
+			}
+			commit(false);
+		}
+
+		/* Once, with the lock */
+		private void fill() {
+			written = true;
+			for (Map.Entry<String, String> value : values.entrySet()) {
+				record.putString(value.getKey(), value.getValue());
+			}
+		}
+
+		/* Without the lock: the writer is never waited for */
+		private void commit(boolean inTime) {
+			Future<?> timeout = this.timeout;
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			finished(this, inTime);
+			slot.commit();
+		}
+	}
+}
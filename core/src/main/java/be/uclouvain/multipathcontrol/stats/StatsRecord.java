@@ -0,0 +1,84 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One stats sample: typed fields, in their insertion order. It is encoded
+ * by StatsCodec.
+ */
+public class StatsRecord {
+
+	private final StatsCategories category;
+	private final long timestamp;
+	private final Map<String, Object> fields = new LinkedHashMap<>();
+
+	public StatsRecord(StatsCategories category, long timestamp) {
+		this.category = category;
+		this.timestamp = timestamp;
+	}
+
+	public StatsCategories getCategory() {
+		return category;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/* null values are not kept */
+	public void putString(String key, String value) {
+		if (value == null) {
+			fields.remove(key);
+		} else {
+			fields.put(key, value);
+		}
+	}
+
+	public void putInt(String key, int value) {
+		fields.put(key, value);
+	}
+
+	public void putLong(String key, long value) {
+		fields.put(key, value);
+	}
+
+	public void putBoolean(String key, boolean value) {
+		fields.put(key, value);
+	}
+
+	public Object get(String key) {
+		return fields.get(key);
+	}
+
+	/* String, Integer, Long or Boolean values */
+	public Map<String, Object> getFields() {
+		return Collections.unmodifiableMap(fields);
+	}
+
+	@Override
+	public String toString() {
+		return category + "@" + timestamp + fields;
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import be.uclouvain.multipathcontrol.system.Clock;
+
+/**
+ * Writes the stats records on its own thread: the records submitted while
+ * a batch is written are written together, with a single flush.
+ *
+ * The records are written in the order of their submission. A record can
+ * take its place in the queue before being finished (reserve()): the ones
+ * after it wait for its commit(), see isStalled().
+ *
+ * Submitting never waits. When the queue is full, a new LOW priority record
+ * is dropped, a HIGH priority one takes the place of the oldest queued LOW
+ * one, or is dropped too if there is none.
+ */
+public class StatsWriter {
+
+	public enum Priority {
+		LOW, HIGH
+	}
+
+	public interface Sink {
+		void write(StatsRecord record) throws IOException;
+
+		/* the records written before are on the disk after this */
+		void flush() throws IOException;
+	}
+
+	/* The place of a record in the queue */
+	public class Slot {
+		private final StatsRecord record;
+		private final Priority priority;
+		/* guarded by the writer */
+		private boolean committed = false;
+
+		private Slot(StatsRecord record, Priority priority) {
+			this.record = record;
+			this.priority = priority;
+		}
+
+		/* The record is finished: it can be written, it must not change */
+		public void commit() {
+			synchronized (StatsWriter.this) {
+				committed = true;
+				StatsWriter.this.notifyAll();
+			}
+		}
+	}
+
+	private final Sink sink;
+	private final Clock clock;
+	private final int capacity;
+	private final ArrayDeque<Slot> queue = new ArrayDeque<>();
+	private final Thread thread;
+
+	/* being written: not in the queue anymore */
+	private int writing = 0;
+	private boolean closed = false;
+
+	private int maxQueueDepth = 0;
+	private long written = 0;
+	private long dropped = 0;
+	private long errors = 0;
+	private long batches = 0;
+	private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+	public StatsWriter(Sink sink, Clock clock, int capacity) {
+		this.sink = sink;
+		this.clock = clock;
+		this.capacity = capacity;
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "StatsWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/* @return false if the record has been dropped */
+	public boolean submit(StatsRecord record, Priority priority) {
+		Slot slot = reserve(record, priority);
+		if (slot == null) {
+			return false;
+		}
+		slot.commit();
+		return true;
+	}
+
+	/*
+	 * The record will be written after its commit(), and the ones reserved
+	 * after it at the earliest then.
+	 *
+	 * @return null if the record has been dropped
+	 */
+	public synchronized Slot reserve(StatsRecord record, Priority priority) {
+		if (closed) {
+			dropped++;
+			return null;
+		}
+
+		if (queue.size() >= capacity
+				&& (priority == Priority.LOW || !dropLowPriority())) {
+			dropped++;
+			return null;
+		}
+
+		Slot slot = new Slot(record, priority);
+		queue.add(slot);
+		maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+		return slot;
+	}
+
+	/*
+	 * @return true if half of the queue waits for the commit of its head: the
+	 *         records still being finished should be committed now
+	 */
+	public synchronized boolean isStalled() {
+		return queue.size() * 2 >= capacity && !queue.peek().committed;
+	}
+
+	/* @return true if there is space for the new record now */
+	private boolean dropLowPriority() {
+		for (Iterator<Slot> it = queue.iterator(); it.hasNext();) {
+			if (it.next().priority == Priority.LOW) {
+				it.remove();
+				dropped++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* The committed records at the head of the queue */
+	private List<Slot> takeBatch() throws InterruptedException {
+		synchronized (this) {
+			while (queue.isEmpty() ? !closed : !queue.peek().committed) {
+				wait();
+			}
+			if (queue.isEmpty()) {
+				return null;
+			}
+
+			List<Slot> batch = new ArrayList<>();
+			while (!queue.isEmpty() && queue.peek().committed) {
+				batch.add(queue.poll());
+			}
+			writing = batch.size();
+			return batch;
+		}
+	}
+
+	private void loop() {
+		List<Slot> batch;
+		try {
+			while ((batch = takeBatch()) != null) {
+				long start = clock.nanoTime();
+				int failed = 0;
+				for (Slot slot : batch) {
+					try {
+						sink.write(slot.record);
+					} catch (IOException e) {
+						failed++;
+					}
+				}
+				try {
+					sink.flush();
+				} catch (IOException e) {
+					failed = batch.size();
+				}
+				long micros = (clock.nanoTime() - start) / 1000;
+
+				synchronized (this) {
+					flushLatency.record(micros);
+					batches++;
+					written += batch.size() - failed;
+					errors += failed;
+					writing = 0;
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException ignored) {}
+	}
+
+	/* @return true if everything submitted before has been written in time */
+	public synchronized boolean awaitIdle(long timeout) throws InterruptedException {
+		long deadline = clock.currentTimeMillis() + timeout;
+		long wait;
+		while (!queue.isEmpty() || writing > 0) {
+			wait = deadline - clock.currentTimeMillis();
+			if (wait <= 0) {
+				return false;
+			}
+			wait(wait);
+		}
+		return true;
+	}
+
+	/* The records already submitted are still written, once committed */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	public synchronized int getQueueDepth() {
+		return queue.size();
+	}
+
+	public synchronized int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	public synchronized void dump(PrintWriter writer) {
+		writer.println("Stats writer:");
+		writer.println(String.format(Locale.US,
+				"  queue %d/%d (max %d), %d written in %d batches, %d dropped, %d errors",
+				queue.size(), capacity, maxQueueDepth, written, batches, dropped, errors));
+		writer.println(String.format(Locale.US,
+				"  flush (ms): mean %.2f, p50 %.2f, p99 %.2f, max %.2f",
+				flushLatency.getMean() / 1e3, flushLatency.getPercentile(0.5) / 1e3,
+				flushLatency.getPercentile(0.99) / 1e3, flushLatency.getMax() / 1e3));
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import be.uclouvain.multipathcontrol.system.RouteTransaction.Op;
+
+/**
+ * Keeps the last rule dump of each IP version, so that resetting several
+ * interfaces costs one dump instead of one per interface.
+ *
+ * Rules removed by priority are removed from the cached index, which is
+ * dropped if several rules have this priority. Other rule changes make
+ * their table stale: the next lookup of a stale table dumps the rules
+ * again, lookups of the other tables still use the cache.
+ */
+public class CachingRoutingBackend implements RoutingBackend {
+
+	private final RoutingBackend backend;
+
+	/* index per IP version, by IPRouteUtils.familyIndex() */
+	private final RuleIndex[] indexes = new RuleIndex[IPRouteUtils.FAMILIES];
+	private final Set<Integer> staleTables = new HashSet<>();
+
+	public CachingRoutingBackend(RoutingBackend backend) {
+		this.backend = backend;
+	}
+
+	/* e.g. when rules may have been changed by someone else */
+	public synchronized void invalidate() {
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = null;
+		}
+		staleTables.clear();
+	}
+
+	@Override
+	public String[] apply(List<Op> ops) {
+		String[] errors = backend.apply(ops);
+
+		synchronized (this) {
+			for (int i = 0; i < ops.size(); i++) {
+				Op op = ops.get(i);
+				int ip = IPRouteUtils.familyIndex(op.family);
+				RuleIndex index = indexes[ip];
+				if (index == null) {
+					continue;
+				}
+				if (op.type == RouteTransaction.OpType.RULE_DEL && op.address == null && op.prio > 0) {
+					if (errors[i] == null && !index.removePriority(op.prio)) {
+						indexes[ip] = null;
+					}
+				} else if (op.type == RouteTransaction.OpType.RULE_ADD || op.type == RouteTransaction.OpType.RULE_DEL) {
+					staleTables.add(op.table);
+				}
+			}
+		}
+
+		return errors;
+	}
+
+	@Override
+	public synchronized RuleIndex dumpRules(int family) {
+		RuleIndex index = indexes[IPRouteUtils.familyIndex(family)];
+		if (index == null) {
+			index = backend.dumpRules(family);
+			indexes[IPRouteUtils.familyIndex(family)] = index;
+		}
+		return index;
+	}
+
+	@Override
+	public synchronized int[] rulePriorities(int family, int table) {
+		if (staleTables.remove(table)) {
+			// all the tables are refreshed with this dump
+			invalidate();
+		}
+		return dumpRules(family).getPriorities(table);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Cmd {
+	private static final CmdExecutor executor = new CmdExecutor(2, 16);
+	/* the RootShell runs one command at a time: its callers wait here */
+	private static final ExecutorService rootCallers = Executors.newSingleThreadExecutor(
+			new CmdExecutor.NamedThreadFactory("RootShellCaller"));
+
+	static CmdExecutor getExecutor() {
+		return executor;
+	}
+
+	/* Run cmd in its own process, killed after timeout ms */
+	public static Future<CmdResult> submitAsUser(String cmd, long timeout) {
+		return executor.submit(cmd.split(" "), timeout);
+	}
+
+	private static CmdResult runAsUser(String cmd) throws Exception {
+		try {
+			return submitAsUser(cmd, CmdExecutor.DEFAULT_TIMEOUT).get();
+		} catch (ExecutionException e) {
+			throw CmdExecutor.rethrow(e);
+		}
+	}
+
+	public static CmdResult runAsRoot(String cmd) throws Exception {
+		return RootShell.getInstance().run(cmd);
+	}
+
+	public static void runAsRoot(String[] cmds) throws Exception {
+		for (String cmd : cmds) {
+			runAsRoot(cmd);
+		}
+	}
+
+	/* Run cmd in the RootShell without blocking the caller */
+	public static Future<CmdResult> submitAsRoot(final String cmd) {
+		return rootCallers.submit(new Callable<CmdResult>() {
+			@Override
+			public CmdResult call() throws Exception {
+				return runAsRoot(cmd);
+			}
+		});
+	}
+
+	static List<String> getAllLines(String cmd) {
+		List<String> lines = null;
+		try {
+			lines = runAsUser(cmd).getOutput();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		return lines != null && lines.size() > 0 ? lines : null;
+	}
+
+	public static String getAllLinesString(String cmd, char sep) {
+		StringBuilder sBuffer = new StringBuilder();
+		List<String> lines = getAllLines(cmd);
+
+		if (lines == null) {
+			return "";
+		}
+
+		for (String line : lines) {
+			sBuffer.append(line);
+			sBuffer.append(sep);
+		}
+
+		return sBuffer.toString();
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded engine running commands in their own process.
+ *
+ * At most nbRunners commands are executed at the same time and at most
+ * queueSize are waiting: when the queue is full, submit() blocks the caller
+ * until there is room. stdout and stderr are drained concurrently, so a
+ * command can never block on a full pipe, and the process is killed when
+ * it exceeds its deadline. It is always waited for: no zombie is left.
+ *
+ * Only commands are run by the runners: a task waiting for another one of
+ * the same executor could wait forever once they are all busy.
+ */
+public class CmdExecutor {
+
+	public static final long DEFAULT_TIMEOUT = 10000; // ms
+
+	private final ThreadPoolExecutor runners;
+	private final ExecutorService drainers;
+	private final ScheduledExecutorService watchdog;
+
+	static class NamedThreadFactory implements ThreadFactory {
+		private final String name;
+		private final AtomicInteger counter = new AtomicInteger();
+
+		NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/* Backpressure: wait for some room in the queue instead of rejecting */
+	private static final RejectedExecutionHandler blockCaller = new RejectedExecutionHandler() {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if (executor.isShutdown()) {
+				throw new RejectedExecutionException("CmdExecutor is shut down");
+			}
+			try {
+				executor.getQueue().put(r);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(e);
+			}
+		}
+	};
+
+	public CmdExecutor(int nbRunners, int queueSize) {
+		runners = new ThreadPoolExecutor(nbRunners, nbRunners, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new NamedThreadFactory("CmdRunner"), blockCaller);
+		drainers = Executors.newFixedThreadPool(nbRunners, new NamedThreadFactory("CmdDrainer"));
+		watchdog = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("CmdWatchdog"));
+	}
+
+	/* Number of commands waiting for a runner */
+	public int getQueueDepth() {
+		return runners.getQueue().size();
+	}
+
+	private static List<String> readLines(InputStream stream) throws IOException {
+		List<String> lines = new ArrayList<>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(stream));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+
+	/**
+	 * Kill the process if it is still running after timeout ms.
+	 *
+	 * @param timedOut set to true if the process had to be killed
+	 */
+	private ScheduledFuture<?> scheduleKill(final Process process, final AtomicBoolean timedOut, long timeout) {
+		return watchdog.schedule(new Runnable() {
+			@Override
+			public void run() {
+				timedOut.set(true);
+				process.destroy();
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+	}
+
+	private CmdResult execute(String[] argv, long timeout) throws IOException, InterruptedException {
+		final Process process = new ProcessBuilder(argv).start();
+		AtomicBoolean timedOut = new AtomicBoolean(false);
+		ScheduledFuture<?> kill = scheduleKill(process, timedOut, timeout);
+
+		try {
+			process.getOutputStream().close();
+
+			Future<List<String>> error = drainers.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws IOException {
+					return readLines(process.getErrorStream());
+				}
+			});
+			List<String> output = readLines(process.getInputStream());
+			int exitCode = process.waitFor();
+
+			List<String> errorLines;
+			try {
+				errorLines = error.get();
+			} catch (ExecutionException e) {
+				errorLines = new ArrayList<>(0);
+			}
+
+			if (timedOut.get()) {
+				exitCode = CmdResult.NO_EXIT_CODE;
+			}
+			return new CmdResult(exitCode, output, errorLines, timedOut.get());
+		} finally {
+			kill.cancel(false);
+			process.destroy();
+		}
+	}
+
+	/* Run argv in a new process, killed after timeout ms */
+	public Future<CmdResult> submit(final String[] argv, final long timeout) {
+		return runners.submit(new Callable<CmdResult>() {
+			@Override
+			public CmdResult call() throws Exception {
+				return execute(argv, timeout);
+			}
+		});
+	}
+
+	/* The cause of e as an IOException: unchecked causes are thrown again */
+	static IOException rethrow(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		return new IOException(cause);
+	}
+
+	public void shutdown() {
+		runners.shutdownNow();
+		drainers.shutdownNow();
+		watchdog.shutdownNow();
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exit status and output of a command executed by Cmd or a Shell.
+ */
+public class CmdResult {
+
+	/* exit code used when the command could not run until its end */
+	public static final int NO_EXIT_CODE = -1;
+
+	private final int exitCode;
+	private final List<String> output;
+	private final List<String> error;
+	private final boolean timedOut;
+
+	public CmdResult(int exitCode, List<String> output) {
+		this(exitCode, output, Collections.<String> emptyList(), false);
+	}
+
+	public CmdResult(int exitCode, List<String> output, List<String> error, boolean timedOut) {
+		this.exitCode = exitCode;
+		this.output = Collections.unmodifiableList(output);
+		this.error = Collections.unmodifiableList(error);
+		this.timedOut = timedOut;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	public boolean isSuccess() {
+		return exitCode == 0 && !timedOut;
+	}
+
+	/* stdout, with stderr interleaved for commands run in the RootShell */
+	public List<String> getOutput() {
+		return output;
+	}
+
+	/* stderr, empty for commands run in the RootShell */
+	public List<String> getError() {
+		return error;
+	}
+
+	/* the command has been killed because it exceeded its deadline */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+}
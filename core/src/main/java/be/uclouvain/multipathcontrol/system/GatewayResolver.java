@@ -0,0 +1,272 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gateway of each interface and IP version, kept until a route change is
+ * reported for the interface, or at most CACHE_TTL in case one is missed.
+ *
+ * IPv4: net.IFACE.gw or dhcp.IFACE.gateway system properties, often empty
+ * on recent versions, then /proc/net/route. IPv6: /proc/net/ipv6_route.
+ * When /proc only shows the main table, routes of the other tables are
+ * read with "ip route show table all", except the ones of TableAllocator:
+ * they are set from this resolver, and could be stale.
+ */
+public class GatewayResolver {
+
+	public interface PropertySource {
+		/* @return the value of a system property, null or empty if unset */
+		String get(String key);
+	}
+
+	private static final String PROC_ROUTE = "/proc/net/route";
+	private static final String PROC_IPV6_ROUTE = "/proc/net/ipv6_route";
+
+	private static final int RTF_GATEWAY = 0x2;
+	private static final long CACHE_TTL = 60 * 1000;
+
+	private static GatewayResolver instance = null;
+
+	private final PropertySource properties;
+	private final String procRoute;
+	private final String procIpv6Route;
+	private final Shell shell;
+	private final Clock clock;
+	/* "4wlan0" -> gateway, misses are not kept */
+	private final Map<String, String> cache = new HashMap<>();
+	private final Map<String, Long> cachedAt = new HashMap<>();
+
+	/* Uses android.os.SystemProperties.get(), via reflection */
+	private static final PropertySource systemProperties = new PropertySource() {
+		@Override
+		public String get(String key) {
+			return HiddenApi.getSystemProperty(key);
+		}
+	};
+
+	public static synchronized GatewayResolver getInstance() {
+		if (instance == null) {
+			instance = new GatewayResolver(systemProperties, PROC_ROUTE, PROC_IPV6_ROUTE,
+					RootShell.getInstance(), Clock.SYSTEM);
+		}
+		return instance;
+	}
+
+	/* e.g. to read fake /proc files through a fake shell */
+	public static synchronized void setInstance(GatewayResolver resolver) {
+		instance = resolver;
+	}
+
+	public GatewayResolver(PropertySource properties, String procRoute, String procIpv6Route,
+			Shell shell, Clock clock) {
+		this.properties = properties;
+		this.procRoute = procRoute;
+		this.procIpv6Route = procIpv6Route;
+		this.shell = shell;
+		this.clock = clock;
+	}
+
+	/* @return the gateway of iface for this IP version, null if none */
+	public synchronized String getGateway(String iface, int family) {
+		String key = family + iface;
+		long now = clock.currentTimeMillis();
+		String gateway = cache.get(key);
+		if (gateway != null && now - cachedAt.get(key) < CACHE_TTL) {
+			return gateway;
+		}
+
+		gateway = family == 6 ? resolve6(iface) : resolve4(iface);
+		if (gateway != null) {
+			cache.put(key, gateway);
+			cachedAt.put(key, now);
+		} else {
+			cache.remove(key);
+		}
+		return gateway;
+	}
+
+	/* The routes of iface changed */
+	public synchronized void invalidate(String iface) {
+		cache.remove(4 + iface);
+		cache.remove(6 + iface);
+		cachedAt.remove(4 + iface);
+		cachedAt.remove(6 + iface);
+	}
+
+	public synchronized void invalidateAll() {
+		cache.clear();
+		cachedAt.clear();
+	}
+
+	private String getProperty(String key) {
+		String value = properties == null ? null : properties.get(key);
+		return value == null || value.isEmpty() ? null : value;
+	}
+
+	private String resolve4(String iface) {
+		/* Unfortunately there is no clean/easy way to do this in Android :-( */
+		String gateway = getProperty("net." + iface + ".gw");
+		if (gateway == null) {
+			gateway = getProperty("dhcp." + iface + ".gateway");
+		}
+		if (gateway == null) {
+			gateway = parseFile(procRoute, iface, 4);
+		}
+		if (gateway == null) {
+			gateway = fromIPRoute(iface, 4);
+		}
+		return gateway;
+	}
+
+	private String resolve6(String iface) {
+		String gateway = parseFile(procIpv6Route, iface, 6);
+		if (gateway == null) {
+			gateway = fromIPRoute(iface, 6);
+		}
+		return gateway;
+	}
+
+	private static String parseFile(String path, String iface, int family) {
+		try {
+			Reader reader = new FileReader(path);
+			try {
+				return family == 6 ? parseProcIpv6Route(reader, iface) : parseProcRoute(reader, iface);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/* The default routes of the other tables (e.g. per network ones) */
+	private String fromIPRoute(String iface, int family) {
+		List<String> lines;
+		try {
+			lines = shell.run("ip -" + family + " route show table all dev " + iface).getOutput();
+		} catch (IOException e) {
+			return null;
+		}
+
+		TableAllocator allocator = TableAllocator.getInstance();
+		for (String line : lines) {
+			if (!line.startsWith("default via ")) {
+				continue;
+			}
+			String[] fields = line.split(" ");
+			if (isAllocated(allocator, fields)) {
+				continue;
+			}
+			return fields[2];
+		}
+
+		return null;
+	}
+
+	/* @return true if the route is in one of our tables ("table N") */
+	private static boolean isAllocated(TableAllocator allocator, String[] fields) {
+		for (int i = 3; i < fields.length - 1; i++) {
+			if (!fields[i].equals("table")) {
+				continue;
+			}
+			try {
+				return allocator.isAllocated(Integer.parseInt(fields[i + 1]));
+			} catch (NumberFormatException e) {
+				// a name from rt_tables, e.g. "local": not one of ours
+				return false;
+			}
+		}
+		// main table
+		return false;
+	}
+
+	private static int parseHexInt(String hex) {
+		return (int) Long.parseLong(hex, 16);
+	}
+
+	/*
+	 * Iface Destination Gateway Flags RefCnt Use Metric Mask MTU Window IRTT
+	 * wlan0 00000000    0101A8C0 0003  0      0   0      ...
+	 *
+	 * Addresses are in host order (little endian on Android devices).
+	 */
+	public static String parseProcRoute(Reader reader, String iface) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		String line = in.readLine(); // header
+		while ((line = in.readLine()) != null) {
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length < 4 || !fields[0].equals(iface) || !fields[1].equals("00000000")) {
+				continue;
+			}
+
+			try {
+				if ((parseHexInt(fields[3]) & RTF_GATEWAY) == 0) {
+					continue;
+				}
+				int gw = parseHexInt(fields[2]);
+				return InetAddress.getByAddress(new byte[] {
+						(byte) gw,
+						(byte) (gw >>> 8),
+						(byte) (gw >>> 16),
+						(byte) (gw >>> 24)
+				}).getHostAddress();
+			} catch (NumberFormatException | UnknownHostException ignored) {}
+		}
+		return null;
+	}
+
+	/*
+	 * dest(32 hex) dest_len src src_len next_hop metric refcnt use flags iface
+	 */
+	public static String parseProcIpv6Route(Reader reader, String iface) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length < 10 || !fields[9].equals(iface) || !fields[1].equals("00")
+					|| !fields[0].equals("00000000000000000000000000000000")) {
+				continue;
+			}
+
+			try {
+				if ((parseHexInt(fields[8]) & RTF_GATEWAY) == 0) {
+					continue;
+				}
+				byte[] gw = new byte[16];
+				for (int i = 0; i < 16; i++) {
+					gw[i] = (byte) Integer.parseInt(fields[4].substring(2 * i, 2 * i + 2), 16);
+				}
+				return InetAddress.getByAddress(gw).getHostAddress();
+			} catch (NumberFormatException | UnknownHostException | StringIndexOutOfBoundsException ignored) {}
+		}
+		return null;
+	}
+}
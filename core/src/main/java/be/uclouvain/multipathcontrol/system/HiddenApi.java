@@ -0,0 +1,185 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hidden platform methods, only reachable via reflection.
+ *
+ * Each method is looked up once: the handle, or the fact that it does not
+ * exist on this device, is kept. Each call is counted and timed.
+ */
+public class HiddenApi {
+
+	public static class Call {
+		private final String className;
+		private final String methodName;
+		private final Class<?>[] parameterTypes;
+
+		private volatile boolean resolved = false;
+		private volatile Method method = null;
+
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+
+		private Call(String className, String methodName, Class<?>... parameterTypes) {
+			this.className = className;
+			this.methodName = methodName;
+			this.parameterTypes = parameterTypes;
+		}
+
+		private Method resolve() {
+			if (resolved) {
+				return method;
+			}
+
+			synchronized (this) {
+				if (!resolved) {
+					try {
+						Class<?> cls = Class.forName(className);
+						Method m;
+						try {
+							m = cls.getMethod(methodName, parameterTypes);
+						} catch (NoSuchMethodException e) {
+							m = cls.getDeclaredMethod(methodName, parameterTypes);
+							m.setAccessible(true);
+						}
+						method = m;
+					} catch (Exception | LinkageError ignored) {
+						// not available on this device: do not look again
+					}
+					resolved = true;
+				}
+			}
+			return method;
+		}
+
+		/*
+		 * A call fails if the method is missing or throws: a method may return
+		 * null without failing.
+		 *
+		 * @return the result of the call, null if it failed (or returned null)
+		 */
+		private Object invoke(Object target, Object... args) {
+			long start = System.nanoTime();
+			Object result = null;
+			boolean failed = true;
+			try {
+				Method m = resolve();
+				if (m != null) {
+					result = m.invoke(target, args);
+					failed = false;
+				}
+			} catch (Exception ignored) {
+			} finally {
+				count.incrementAndGet();
+				if (failed) {
+					failures.incrementAndGet();
+				}
+				totalNanos.addAndGet(System.nanoTime() - start);
+			}
+			return result;
+		}
+
+		public String getName() {
+			return className.substring(className.lastIndexOf('.') + 1) + '.' + methodName;
+		}
+
+		/* @return false if the method does not exist, null if not looked up yet */
+		public Boolean isAvailable() {
+			return resolved ? method != null : null;
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getFailures() {
+			return failures.get();
+		}
+
+		public long getTotalNanos() {
+			return totalNanos.get();
+		}
+
+		@Override
+		public String toString() {
+			long n = getCount();
+			return getName() + ": " + n + " calls, " + getFailures() + " failed, "
+					+ (n == 0 ? 0 : getTotalNanos() / n / 1000) + " us/call";
+		}
+	}
+
+	public static final Call SYSTEM_PROPERTIES_GET = new Call(
+			"android.os.SystemProperties", "get", String.class);
+	public static final Call GET_MOBILE_DATA_ENABLED = new Call(
+			"android.net.ConnectivityManager", "getMobileDataEnabled");
+	public static final Call GET_LTE_LEVEL = new Call(
+			"android.telephony.SignalStrength", "getLteLevel");
+	public static final Call GET_LTE_DBM = new Call(
+			"android.telephony.SignalStrength", "getLteDbm");
+
+	private static final List<Call> calls = Collections.unmodifiableList(Arrays.asList(
+			SYSTEM_PROPERTIES_GET, GET_MOBILE_DATA_ENABLED, GET_LTE_LEVEL, GET_LTE_DBM));
+
+	private HiddenApi() {}
+
+	public static List<Call> getCalls() {
+		return calls;
+	}
+
+	public static void dump(PrintWriter writer) {
+		writer.println("Hidden API calls:");
+		for (Call call : calls) {
+			writer.println("  " + call);
+		}
+	}
+
+	/* @return android.os.SystemProperties.get(key), null if not available */
+	public static String getSystemProperty(String key) {
+		return (String) SYSTEM_PROPERTIES_GET.invoke(null, key);
+	}
+
+	/* @return ConnectivityManager.getMobileDataEnabled(), def if not available */
+	public static boolean getMobileDataEnabled(Object connectivityManager, boolean def) {
+		Object result = GET_MOBILE_DATA_ENABLED.invoke(connectivityManager);
+		return result == null ? def : (Boolean) result;
+	}
+
+	/* @return SignalStrength.getLteLevel(), def if not available */
+	public static int getLteLevel(Object signalStrength, int def) {
+		Object result = GET_LTE_LEVEL.invoke(signalStrength);
+		return result == null ? def : (Integer) result;
+	}
+
+	/* @return SignalStrength.getLteDbm(), def if not available */
+	public static int getLteDbm(Object signalStrength, int def) {
+		Object result = GET_LTE_DBM.invoke(signalStrength);
+		return result == null ? def : (Integer) result;
+	}
+}
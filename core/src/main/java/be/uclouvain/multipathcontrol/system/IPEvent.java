@@ -0,0 +1,76 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+/**
+ * A change reported by "ip monitor": a link, an address or a route which
+ * has been added (or modified) or deleted.
+ */
+public class IPEvent {
+
+	public enum Type {
+		LINK, ADDRESS, ROUTE
+	}
+
+	public static final int TABLE_MAIN = 254;
+	public static final int TABLE_LOCAL = 255;
+
+	public final Type type;
+	public final boolean deleted;
+	/* interface name, null if unknown (e.g. route without dev) */
+	public final String iface;
+	/* 4 or 6, 0 for links */
+	public final int family;
+	/* address or route destination, null for a default route */
+	public final String address;
+	public final int prefix;
+	/* route gateway, null if none */
+	public final String gateway;
+	/* route table */
+	public final int table;
+	/* link is administratively up and has a carrier */
+	public final boolean up;
+	/* line of "ip monitor" describing this event, e.g. to record it */
+	public final String line;
+
+	IPEvent(Type type, boolean deleted, String iface, int family, String address, int prefix, String gateway, int table, boolean up, String line) {
+		this.type = type;
+		this.deleted = deleted;
+		this.iface = iface;
+		this.family = family;
+		this.address = address;
+		this.prefix = prefix;
+		this.gateway = gateway;
+		this.table = table;
+		this.up = up;
+		this.line = line;
+	}
+
+	public boolean isDefaultRoute() {
+		return type == Type.ROUTE && address == null;
+	}
+
+	@Override
+	public String toString() {
+		return (deleted ? "Deleted " : "") + type + " " + iface + " " + family + " " + address + "/" + prefix
+				+ " via " + gateway + " table " + table + (up ? " up" : "");
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Long-running "ip monitor" subscription: links, addresses and routes
+ * changes are pushed to the listener as soon as the kernel reports them.
+ *
+ * The events are delivered on the monitor's own thread. If ip exits, it is
+ * restarted after a short delay until stop() is called.
+ *
+ * Killing su does not kill ip with many su implementations: its pid is the
+ * first line of output (the shell is replaced by ip), it is killed by pid.
+ */
+public class IPMonitor implements Runnable {
+
+	public interface Listener {
+		void onIPEvent(IPEvent event);
+	}
+
+	private static final String CMD = "echo $$; exec ip -o monitor label link address route";
+	private static final long RESTART_DELAY = 1000; // ms
+
+	private final Listener listener;
+	private volatile boolean running = false;
+	private volatile Process process;
+	/* of the running ip, -1 if unknown: guarded by this */
+	private int pid = -1;
+	private Thread thread;
+
+	public IPMonitor(Listener listener) {
+		this.listener = listener;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "IPMonitor");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+		killIp();
+		Process p = process;
+		if (p != null) {
+			p.destroy();
+		}
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	private synchronized void killIp() {
+		if (pid == -1) {
+			return;
+		}
+		try {
+			RootShell.getInstance().run("kill " + pid);
+		} catch (IOException ignored) {}
+		pid = -1;
+	}
+
+	/* @return false if stopped before ip was started */
+	private synchronized boolean setPid(String line) {
+		try {
+			pid = Integer.parseInt(line.trim());
+		} catch (NumberFormatException e) {
+			pid = -1;
+		}
+		if (!running) {
+			killIp();
+			return false;
+		}
+		return true;
+	}
+
+	private synchronized void clearPid() {
+		pid = -1;
+	}
+
+	private void monitor() throws IOException {
+		ProcessBuilder builder = new ProcessBuilder("su", "-c", CMD);
+		builder.redirectErrorStream(true);
+		process = builder.start();
+		process.getOutputStream().close();
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		try {
+			String line = in.readLine();
+			if (line == null || !setPid(line)) {
+				return;
+			}
+			while (running && (line = in.readLine()) != null) {
+				IPEvent event = IPMonitorParser.parse(line);
+				if (event != null) {
+					listener.onIPEvent(event);
+				}
+			}
+		} finally {
+			// ip exited, or it is killed by stop()
+			clearPid();
+			in.close();
+			process.destroy();
+			process = null;
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				monitor();
+			} catch (IOException ignored) {}
+
+			try {
+				Thread.sleep(RESTART_DELAY);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+/**
+ * Parser of the output of "ip -o monitor label link address route", one line
+ * at a time, e.g.:
+ *
+ * [LINK]3: wlan0: <BROADCAST,MULTICAST,UP,LOWER_UP> mtu 1500 ... state UP ...
+ * [ADDR]Deleted 3: wlan0    inet 192.168.1.10/24 brd ... scope global wlan0\ ...
+ * [ROUTE]default via 192.168.1.1 dev wlan0 proto dhcp metric 600
+ *
+ * Lines without label are recognised too. Continuation lines (without -o)
+ * and other objects are ignored.
+ */
+public class IPMonitorParser {
+
+	private static final String DELETED = "Deleted ";
+
+	private final String line;
+	private int pos;
+
+	private IPMonitorParser(String line) {
+		this.line = line;
+	}
+
+	/* @return the event described by this line, null if not relevant */
+	public static IPEvent parse(String line) {
+		if (line == null || line.isEmpty() || Character.isWhitespace(line.charAt(0))) {
+			return null;
+		}
+
+		return new IPMonitorParser(line).parse();
+	}
+
+	private IPEvent parse() {
+		IPEvent.Type type = null;
+		if (line.charAt(0) == '[') {
+			int end = line.indexOf(']');
+			if (end == -1) {
+				return null;
+			}
+			String label = line.substring(1, end);
+			if (label.equals("LINK")) {
+				type = IPEvent.Type.LINK;
+			} else if (label.equals("ADDR")) {
+				type = IPEvent.Type.ADDRESS;
+			} else if (label.equals("ROUTE")) {
+				type = IPEvent.Type.ROUTE;
+			} else {
+				return null;
+			}
+			pos = end + 1;
+		}
+
+		boolean deleted = line.startsWith(DELETED, pos);
+		if (deleted) {
+			pos += DELETED.length();
+		}
+
+		if (type == null) {
+			type = guessType();
+		}
+
+		switch (type) {
+			case LINK:
+				return parseLink(deleted);
+			case ADDRESS:
+				return parseAddress(deleted);
+			default:
+				return parseRoute(deleted);
+		}
+	}
+
+	/* "N: name: <" is a link, "N: name    inet" an address, else a route */
+	private IPEvent.Type guessType() {
+		int i = pos;
+		while (i < line.length() && Character.isDigit(line.charAt(i))) {
+			i++;
+		}
+		if (i == pos || i >= line.length() || line.charAt(i) != ':') {
+			return IPEvent.Type.ROUTE;
+		}
+
+		int end = line.indexOf(' ', i + 2);
+		if (end > 0 && line.charAt(end - 1) == ':') {
+			return IPEvent.Type.LINK;
+		}
+		return IPEvent.Type.ADDRESS;
+	}
+
+	private String nextToken() {
+		int len = line.length();
+		while (pos < len && (line.charAt(pos) == ' ' || line.charAt(pos) == '\t')) {
+			pos++;
+		}
+		if (pos >= len || line.charAt(pos) == '\\') {
+			return null;
+		}
+
+		int start = pos;
+		while (pos < len && line.charAt(pos) != ' ' && line.charAt(pos) != '\t') {
+			pos++;
+		}
+		return line.substring(start, pos);
+	}
+
+	/* skip "N:" */
+	private boolean skipIndex() {
+		String index = nextToken();
+		return index != null && index.endsWith(":");
+	}
+
+	private static String stripColon(String name) {
+		if (name != null && name.endsWith(":")) {
+			name = name.substring(0, name.length() - 1);
+		}
+		// "rmnet0@if3" for some virtual links
+		int at = name == null ? -1 : name.indexOf('@');
+		return at == -1 ? name : name.substring(0, at);
+	}
+
+	private static int parseTable(String table) {
+		if (table.equals("main")) {
+			return IPEvent.TABLE_MAIN;
+		}
+		if (table.equals("local")) {
+			return IPEvent.TABLE_LOCAL;
+		}
+		try {
+			return Integer.parseInt(table);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private IPEvent parseLink(boolean deleted) {
+		if (!skipIndex()) {
+			return null;
+		}
+		String iface = stripColon(nextToken());
+		String flags = nextToken();
+		if (iface == null || flags == null) {
+			return null;
+		}
+
+		boolean up = flags.contains(",UP") || flags.contains("<UP");
+		up &= flags.contains("LOWER_UP");
+		return new IPEvent(IPEvent.Type.LINK, deleted, iface, 0, null, 0, null, 0, up && !deleted, line);
+	}
+
+	private IPEvent parseAddress(boolean deleted) {
+		if (!skipIndex()) {
+			return null;
+		}
+		String iface = stripColon(nextToken());
+		String family = nextToken();
+		String address = nextToken();
+		if (iface == null || family == null || address == null) {
+			return null;
+		}
+
+		int prefix = 0;
+		int slash = address.indexOf('/');
+		if (slash != -1) {
+			try {
+				prefix = Integer.parseInt(address.substring(slash + 1));
+			} catch (NumberFormatException ignored) {}
+			address = address.substring(0, slash);
+		}
+
+		int fam;
+		if (family.equals("inet")) {
+			fam = 4;
+		} else if (family.equals("inet6")) {
+			fam = 6;
+		} else {
+			return null;
+		}
+
+		return new IPEvent(IPEvent.Type.ADDRESS, deleted, iface, fam, address, prefix, null, 0, false, line);
+	}
+
+	private IPEvent parseRoute(boolean deleted) {
+		String dst = nextToken();
+		// route type, e.g. "local 192.168.1.10 dev wlan0 table local ..."
+		if (dst != null && Character.isLetter(dst.charAt(0)) && !dst.equals("default") && dst.indexOf(':') == -1) {
+			dst = nextToken();
+		}
+		if (dst == null) {
+			return null;
+		}
+
+		String address = null;
+		int prefix = 0;
+		if (!dst.equals("default")) {
+			int slash = dst.indexOf('/');
+			address = slash == -1 ? dst : dst.substring(0, slash);
+			if (slash != -1) {
+				try {
+					prefix = Integer.parseInt(dst.substring(slash + 1));
+				} catch (NumberFormatException ignored) {}
+			} else {
+				prefix = address.indexOf(':') == -1 ? 32 : 128;
+			}
+		}
+
+		String gateway = null;
+		String iface = null;
+		int table = IPEvent.TABLE_MAIN;
+		String key;
+		while ((key = nextToken()) != null) {
+			if (key.equals("via")) {
+				gateway = nextToken();
+				// "via inet6 fe80::1" with recent versions
+				if (gateway != null && gateway.startsWith("inet")) {
+					gateway = nextToken();
+				}
+			} else if (key.equals("dev")) {
+				iface = nextToken();
+			} else if (key.equals("table")) {
+				String value = nextToken();
+				if (value != null) {
+					table = parseTable(value);
+				}
+			}
+		}
+
+		String any = address != null ? address : gateway;
+		int family = any != null && any.indexOf(':') != -1 ? 6 : 4;
+
+		return new IPEvent(IPEvent.Type.ROUTE, deleted, iface, family, address, prefix, gateway, table, false, line);
+	}
+}
@@ -20,116 +20,99 @@
 
 package be.uclouvain.multipathcontrol.system;
 
-import java.lang.reflect.Method;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class IPRouteUtils {
 
-	private static final int ipVersions[] = { 4 };
+	private static final int ipVersions[] = { 4, 6 };
+	/* size of the arrays indexed by familyIndex() */
+	public static final int FAMILIES = ipVersions.length;
 
-	private static int mapIfaceToTable(String ifaceName) {
-		return Math.abs(ifaceName.hashCode()) % 32765 + 1;
+	public static int mapIfaceToTable(String ifaceName) {
+		return TableAllocator.getInstance().getTable(ifaceName);
 	}
 
 	public static int mapIfaceToTable(NetworkInterface iface) {
 		return mapIfaceToTable(iface.getName());
 	}
 
-	private static int packAddress(InetAddress addr) {
-		return ByteBuffer.wrap(addr.getAddress()).getInt();
-	}
-
-	private static InetAddress unpackAddress(int addr) throws UnknownHostException {
-		return InetAddress.getByAddress(new byte[] {
-				(byte) ((addr >>> 24) & 0xff),
-                (byte) ((addr >>> 16) & 0xff),
-				(byte) ((addr >>> 8) & 0xff),
-                (byte) ((addr) & 0xff)
-		});
+	/* @return the IPv4 gateway of iface, null if none */
+	public static String getGateway(NetworkInterface iface) {
+		return getGateway(iface.getName(), 4);
 	}
 
-	/* Return the value of a system property key */
-	private static String getSystemProperty(String key) {
-		try {
-			Class<?> spClass = Class.forName("android.os.SystemProperties");
-			Method method = spClass.getDeclaredMethod("get", String.class);
-			return (String) method.invoke(spClass, key);
-		} catch (Exception ignored) {}
-
-		return null;
+	/* @return the gateway of iface for this IP version, null if none */
+	public static String getGateway(String ifaceName, int family) {
+		return GatewayResolver.getInstance().getGateway(ifaceName, family);
 	}
 
-	private static String getGateway(String ifaceName) {
-		/* Unfortunately there is no clean/easy way to do this in Android :-( */
-		String gateway = getSystemProperty("net." + ifaceName + ".gw");
-        assert gateway != null;
-        gateway = gateway.isEmpty() ? getSystemProperty("dhcp." + ifaceName+ ".gateway") : gateway;
-
-		return gateway;
+	public static int getFamily(InetAddress addr) {
+		return addr instanceof Inet6Address ? 6 : 4;
 	}
 
-	public static String getGateway(NetworkInterface iface) {
-		return getGateway(iface.getName());
+	/* @return the index of family (4 or 6) in ipVersions: 0 or 1 */
+	public static int familyIndex(int family) {
+		return family == 6 ? 1 : 0;
 	}
 
 	public static InetAddress toSubnet(InetAddress addr, int prefix) throws UnknownHostException {
-		int address = packAddress(addr);
-		int mask = 0xffffffff << (32 - prefix);
-		int subnet = address & mask;
+		byte[] address = addr.getAddress();
+
+		for (int i = 0; i < address.length; i++) {
+			int bits = prefix - 8 * i;
+			if (bits <= 0) {
+				address[i] = 0;
+			} else if (bits < 8) {
+				address[i] &= (byte) (0xff << (8 - bits));
+			}
+		}
 
-		return unpackAddress(subnet);
+		return InetAddress.getByAddress(address);
 	}
 
-	private static List<List<Integer>> existingRules(int table) {
-		Pattern pa = Pattern.compile("^([0-9]+):.* lookup " + table + " $");
-		// We cannot use an array of lists :-)
-		List<List<Integer>> allRules = new ArrayList<>(2);
+	/* @return the priorities of the rules using table, for each IP version */
+	private static int[][] existingRules(int table) {
+		int[][] allRules = new int[ipVersions.length][];
+		RoutingBackend backend = RoutingBackends.getDefault();
 
 		for (int i = 0; i < ipVersions.length; i++) {
-			List<Integer> rules = new ArrayList<>();
-			allRules.add(i, rules);
-
-			for (String line : Cmd.getAllLines("ip -" + ipVersions[i] + " rule show")) {
-				Matcher m = pa.matcher(line);
-				if (m.matches())
-					rules.add(Integer.parseInt(m.group(1)));
-			}
+			allRules[i] = backend.rulePriorities(ipVersions[i], table);
 		}
 
 		return allRules;
 	}
 
-	public static void resetRule(NetworkInterface iface) {
-		int table = mapIfaceToTable(iface);
-		String[] cmds;
+	/* Add to tx the operations removing all rules and routes of iface */
+	public static void resetRule(NetworkInterface iface, RouteTransaction tx) {
+		resetTable(mapIfaceToTable(iface), tx);
+	}
+
+	/* Add to tx the operations removing all rules and routes of table */
+	public static void resetTable(int table, RouteTransaction tx) {
 		/* Unfortunately ip rule delete table X doesn't work :-( */
-		List<List<Integer>> allRules = existingRules(table);
+		int[][] allRules = existingRules(table);
 
 		for (int ip = 0; ip < ipVersions.length; ip++) {
-			List<Integer> rules = allRules.get(ip);
-
-			cmds = new String[rules.size() + 1];
-			cmds[0] = "ip -" + ipVersions[ip] + " route flush table " + table;
+			tx.flushTable(ipVersions[ip], table);
 
-			for (int i = 1; i < cmds.length; ++i)
-				cmds[i] = "ip -" + ipVersions[ip] + " rule delete prio " + rules.get(i - 1);
-
-			try {
-				Cmd.runAsRoot(cmds);
-			} catch (Exception ignored) {}
+			for (int prio : allRules[ip])
+				tx.deleteRule(ipVersions[ip], prio);
 		}
 	}
 
+	public static void resetRule(NetworkInterface iface) {
+		RouteTransaction tx = new RouteTransaction();
+		resetRule(iface, tx);
+		tx.commit(false);
+	}
+
 	public static boolean isMobile(String ifaceName) {
 		return ifaceName.startsWith("rmnet");
 	}
@@ -0,0 +1,167 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.uclouvain.multipathcontrol.system.RouteTransaction.Op;
+
+/**
+ * Routing backend talking NETLINK_ROUTE directly (libmpctrl_netlink): rules
+ * and routes are changed with RTM_NEWRULE/RTM_DELRULE/RTM_NEWROUTE/...
+ * messages, without forking any process.
+ *
+ * Changing the routing needs CAP_NET_ADMIN, which the app may not have: the
+ * first time the kernel refuses a change, this and all the next ones are
+ * given to the fallback backend. Dumps do not need any privilege.
+ */
+public class NetlinkRoutingBackend implements RoutingBackend {
+
+	private static final int EPERM = 1;
+	private static final int EACCES = 13;
+
+	private static final boolean loaded;
+
+	static {
+		boolean ok;
+		try {
+			System.loadLibrary("mpctrl_netlink");
+			ok = true;
+		} catch (UnsatisfiedLinkError e) {
+			ok = false;
+		}
+		loaded = ok;
+	}
+
+	private final RoutingBackend fallback;
+	private int fd = -1;
+	private boolean writable = true;
+
+	private static native int nativeOpen();
+
+	private static native void nativeClose(int fd);
+
+	private static native String nativeStrerror(int errno);
+
+	private static native int nativeRule(int fd, boolean add, int family, byte[] src, int srcLen, int prio, int table);
+
+	private static native int nativeRoute(int fd, boolean add, int family, byte[] dst, int dstLen, byte[] gw, String dev, int table);
+
+	private static native int nativeFlushTable(int fd, int family, int table);
+
+	/* @return [table, priority] of each rule, null on error */
+	private static native int[] nativeRuleDump(int fd, int family);
+
+	public static boolean isAvailable() {
+		return loaded;
+	}
+
+	public NetlinkRoutingBackend(RoutingBackend fallback) {
+		this.fallback = fallback;
+	}
+
+	private boolean open() {
+		if (fd < 0) {
+			fd = nativeOpen();
+		}
+		return fd >= 0;
+	}
+
+	public synchronized void close() {
+		if (fd >= 0) {
+			nativeClose(fd);
+			fd = -1;
+		}
+	}
+
+	private static byte[] toBytes(String address) throws UnknownHostException {
+		// only literals are given: no name resolution
+		return address == null ? null : InetAddress.getByName(address).getAddress();
+	}
+
+	/* @return 0 or -errno */
+	private int apply(Op op) throws UnknownHostException {
+		int maxPrefix = op.family == 6 ? 128 : 32;
+		switch (op.type) {
+			case RULE_ADD:
+			case RULE_DEL:
+				return nativeRule(fd, op.type == RouteTransaction.OpType.RULE_ADD, op.family,
+						toBytes(op.address), maxPrefix, op.prio, op.table);
+			case ROUTE_ADD:
+			case ROUTE_DEL:
+				return nativeRoute(fd, op.type == RouteTransaction.OpType.ROUTE_ADD, op.family,
+						toBytes(op.address), op.address == null ? 0 : op.prefix, toBytes(op.gateway), op.dev, op.table);
+			case ROUTE_FLUSH:
+				return nativeFlushTable(fd, op.family, op.table);
+		}
+		return 0;
+	}
+
+	@Override
+	public synchronized String[] apply(List<Op> ops) {
+		if (!writable || !open()) {
+			return fallback.apply(ops);
+		}
+
+		String[] errors = new String[ops.size()];
+		for (int i = 0; i < ops.size(); i++) {
+			int ret;
+			try {
+				ret = apply(ops.get(i));
+			} catch (UnknownHostException e) {
+				errors[i] = e.toString();
+				continue;
+			}
+
+			if (ret == -EPERM || ret == -EACCES) {
+				// not privileged: let the fallback do this one and the next ones
+				writable = false;
+				List<Op> remaining = new ArrayList<>(ops.subList(i, ops.size()));
+				String[] fallbackErrors = fallback.apply(remaining);
+				System.arraycopy(fallbackErrors, 0, errors, i, fallbackErrors.length);
+				break;
+			}
+
+			if (ret < 0) {
+				errors[i] = "RTNETLINK answers: " + nativeStrerror(-ret);
+			}
+		}
+
+		return errors;
+	}
+
+	@Override
+	public synchronized RuleIndex dumpRules(int family) {
+		int[] rules = open() ? nativeRuleDump(fd, family) : null;
+		if (rules == null) {
+			return fallback.dumpRules(family);
+		}
+		return RuleIndex.fromPairs(rules);
+	}
+
+	@Override
+	public int[] rulePriorities(int family, int table) {
+		return dumpRules(family).getPriorities(table);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read small files of /proc and /sys without forking a process.
+ */
+public class ProcFile {
+
+	private ProcFile() {}
+
+	/* @return all the lines of path, an empty list if it cannot be read */
+	public static List<String> readLines(String path) {
+		List<String> lines = new ArrayList<>();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(path));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} catch (IOException ignored) {
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException ignored) {}
+			}
+		}
+		return lines;
+	}
+
+	/* Same as s.replaceAll("\\s+", " "), without regex */
+	public static String squeeze(String s) {
+		StringBuilder squeezed = new StringBuilder(s.length());
+		boolean space = false;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0b) {
+				space = true;
+				continue;
+			}
+			if (space) {
+				squeezed.append(' ');
+				space = false;
+			}
+			squeezed.append(c);
+		}
+		if (space) {
+			squeezed.append(' ');
+		}
+		return squeezed.toString();
+	}
+
+	/* @return all the lines of path, each one followed by sep */
+	public static String readJoined(String path, char sep) {
+		StringBuilder content = new StringBuilder();
+		for (String line : readLines(path)) {
+			content.append(line).append(sep);
+		}
+		return content.toString();
+	}
+}
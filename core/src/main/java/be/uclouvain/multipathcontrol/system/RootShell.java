@@ -0,0 +1,223 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Long-lived root shell: commands are written to the stdin of a single su
+ * process instead of forking a new "su -c" for each of them.
+ *
+ * Each command is followed by an echo of a unique sentinel and of $?, which
+ * delimits its output and gives its exit status. If the shell is dead when
+ * the command is written, it is restarted and the command is written once
+ * more. Once written, a command is never sent again: the shell may have run
+ * it before dying, e.g. a rule added twice, so the failure is reported.
+ *
+ * The output is read by another thread, so that a command exceeding its
+ * deadline can be given up: the shell is then killed and a new one will be
+ * started for the next command. The old reader only ends when the children
+ * of the killed shell close their output.
+ */
+public class RootShell implements Shell {
+
+	private static final String SENTINEL = "__MPCTRL_END_";
+	private static final String HEREDOC = "__MPCTRL_EOF__";
+
+	private static RootShell instance = null;
+
+	private Process process;
+	private Writer stdin;
+	private BufferedReader stdout;
+	private long cmdId = 0;
+
+	private final ExecutorService readers = Executors.newCachedThreadPool(new CmdExecutor.NamedThreadFactory("RootShellReader"));
+
+	public static synchronized RootShell getInstance() {
+		if (instance == null) {
+			instance = new RootShell();
+		}
+		return instance;
+	}
+
+	private RootShell() {}
+
+	private void start() throws IOException {
+		ProcessBuilder builder = new ProcessBuilder("su");
+		builder.redirectErrorStream(true);
+		process = builder.start();
+		stdin = new OutputStreamWriter(process.getOutputStream());
+		stdout = new BufferedReader(new InputStreamReader(process.getInputStream()));
+	}
+
+	private void stop() {
+		if (process == null) {
+			return;
+		}
+
+		try {
+			stdin.close();
+		} catch (IOException ignored) {}
+		try {
+			stdout.close();
+		} catch (IOException ignored) {}
+		process.destroy();
+		process = null;
+	}
+
+	private static boolean isAlive(Process process) {
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	/*
+	 * The shell only runs the command once its closing brace is read: if this
+	 * fails, the command has not been run.
+	 *
+	 * @return the sentinel ending the output of the command
+	 */
+	private String send(String cmd) throws IOException {
+		if (process == null || !isAlive(process)) {
+			stop();
+			start();
+		}
+
+		String sentinel = SENTINEL + (cmdId++) + "__";
+		// stdin is the shell's own input: the command must not consume it
+		stdin.write("{\n" + cmd + "\n} </dev/null 2>&1\necho \"" + sentinel + " $?\"\n");
+		stdin.flush();
+		return sentinel;
+	}
+
+	private CmdResult receive(final String sentinel, long timeout) throws IOException {
+		final BufferedReader reader = stdout;
+		Future<CmdResult> result = readers.submit(new Callable<CmdResult>() {
+			@Override
+			public CmdResult call() throws IOException {
+				return readResult(reader, sentinel);
+			}
+		});
+
+		try {
+			return result.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// the reader is blocked: do not close it, just forget this shell
+			process.destroy();
+			process = null;
+			return new CmdResult(CmdResult.NO_EXIT_CODE, new ArrayList<String>(0),
+					new ArrayList<String>(0), true);
+		} catch (ExecutionException e) {
+			throw CmdExecutor.rethrow(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	private static CmdResult readResult(BufferedReader reader, String sentinel) throws IOException {
+		List<String> output = new ArrayList<>();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			int pos = line.indexOf(sentinel);
+			if (pos == -1) {
+				output.add(line);
+				continue;
+			}
+
+			// the last line of output may not end with a newline
+			if (pos > 0) {
+				output.add(line.substring(0, pos));
+			}
+
+			int exitCode;
+			try {
+				exitCode = Integer.parseInt(line.substring(pos + sentinel.length()).trim());
+			} catch (NumberFormatException e) {
+				exitCode = -1;
+			}
+			return new CmdResult(exitCode, output);
+		}
+
+		throw new IOException("Root shell died");
+	}
+
+	public synchronized CmdResult run(String cmd, long timeout) throws IOException {
+		String sentinel;
+		try {
+			sentinel = send(cmd);
+		} catch (IOException e) {
+			// the shell has been killed: restart it and try again once
+			stop();
+			sentinel = send(cmd);
+		}
+
+		try {
+			return receive(sentinel, timeout);
+		} catch (IOException e) {
+			// maybe run: not sent again, a new shell is started for the next one
+			stop();
+			throw e;
+		}
+	}
+
+	@Override
+	public CmdResult run(String cmd) throws IOException {
+		return run(cmd, CmdExecutor.DEFAULT_TIMEOUT);
+	}
+
+	/* Append to script cmd with the given lines as its stdin, as a heredoc */
+	public static void appendWithInput(StringBuilder script, String cmd, List<String> input) {
+		script.append(cmd);
+		script.append(" <<'").append(HEREDOC).append("'\n");
+		for (String line : input) {
+			script.append(line).append('\n');
+		}
+		script.append(HEREDOC).append('\n');
+	}
+
+	/* Run cmd with the given lines as its stdin (e.g. for "ip -batch -") */
+	public CmdResult run(String cmd, List<String> input) throws IOException {
+		StringBuilder script = new StringBuilder();
+		appendWithInput(script, cmd, input);
+		return run(script.toString());
+	}
+
+	public synchronized void close() {
+		stop();
+	}
+}
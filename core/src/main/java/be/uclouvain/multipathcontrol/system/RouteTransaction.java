@@ -0,0 +1,279 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects all the rule and route operations of one reconfiguration and
+ * submits them at once to a RoutingBackend, which gives a result per
+ * operation.
+ *
+ * If an operation that must not fail did fail, the operations which have
+ * been applied can be undone, so that a table is never left with a rule but
+ * without its routes.
+ */
+public class RouteTransaction {
+
+	public enum OpType {
+		RULE_ADD, RULE_DEL, ROUTE_ADD, ROUTE_DEL, ROUTE_FLUSH
+	}
+
+	public static class Op {
+		public final OpType type;
+		public final int family;
+		/* source of a rule or destination of a route, null for "default" */
+		public final String address;
+		public final int prefix;
+		public final String gateway;
+		public final String dev;
+		public final int table;
+		public final int prio;
+		/* an error is expected, e.g. when removing what might not exist */
+		public final boolean mayFail;
+
+		Op(OpType type, int family, String address, int prefix, String gateway, String dev, int table, int prio, boolean mayFail) {
+			this.type = type;
+			this.family = family;
+			this.address = address;
+			this.prefix = prefix;
+			this.gateway = gateway;
+			this.dev = dev;
+			this.table = table;
+			this.prio = prio;
+			this.mayFail = mayFail;
+		}
+
+		public static Op rule(int family, String from, int table) {
+			return new Op(OpType.RULE_ADD, family, from, 0, null, null, table, 0, false);
+		}
+
+		/* route to the subnet of an interface, no gateway needed */
+		public static Op linkRoute(int family, String subnet, int prefix, String dev, int table) {
+			return new Op(OpType.ROUTE_ADD, family, subnet, prefix, null, dev, table, 0, false);
+		}
+
+		public static Op defaultRoute(int family, String gateway, String dev, int table) {
+			return new Op(OpType.ROUTE_ADD, family, null, 0, gateway, dev, table, 0, false);
+		}
+
+		private static boolean equals(Object a, Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Op)) {
+				return false;
+			}
+			Op op = (Op) o;
+			return type == op.type && family == op.family && prefix == op.prefix && table == op.table
+					&& prio == op.prio && equals(address, op.address) && equals(gateway, op.gateway)
+					&& equals(dev, op.dev);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(new Object[] { type, family, address, prefix, gateway, dev, table, prio });
+		}
+
+		/* @return the operation cancelling this one, null if there is none */
+		Op inverse() {
+			switch (type) {
+				case RULE_ADD:
+					return new Op(OpType.RULE_DEL, family, address, prefix, gateway, dev, table, prio, true);
+				case ROUTE_ADD:
+					return new Op(OpType.ROUTE_DEL, family, address, prefix, gateway, dev, table, prio, true);
+				default:
+					return null;
+			}
+		}
+
+		private String destination() {
+			return address == null ? "default" : address + "/" + prefix;
+		}
+
+		/* @return this operation as a line of "ip -batch", without "ip -X" */
+		public String toBatchLine() {
+			StringBuilder sBuffer = new StringBuilder();
+			switch (type) {
+				case RULE_ADD:
+				case RULE_DEL:
+					sBuffer.append(type == OpType.RULE_ADD ? "rule add" : "rule delete");
+					if (address != null) {
+						sBuffer.append(" from ").append(address);
+					}
+					if (prio > 0) {
+						sBuffer.append(" prio ").append(prio);
+					}
+					if (table > 0) {
+						sBuffer.append(" table ").append(table);
+					}
+					break;
+				case ROUTE_ADD:
+				case ROUTE_DEL:
+					sBuffer.append(type == OpType.ROUTE_ADD ? "route add " : "route delete ");
+					sBuffer.append(destination());
+					if (gateway != null) {
+						sBuffer.append(" via ").append(gateway);
+					}
+					sBuffer.append(" dev ").append(dev);
+					if (gateway == null) {
+						sBuffer.append(" scope link");
+					}
+					sBuffer.append(" table ").append(table);
+					break;
+				case ROUTE_FLUSH:
+					sBuffer.append("route flush table ").append(table);
+					break;
+			}
+			return sBuffer.toString();
+		}
+	}
+
+	public static class Result {
+		private final List<Op> ops;
+		/* error message per operation, null if it succeeded */
+		private final String[] errors;
+		private boolean rolledBack = false;
+
+		Result(List<Op> ops, String[] errors) {
+			this.ops = ops;
+			this.errors = errors;
+		}
+
+		public int size() {
+			return ops.size();
+		}
+
+		public Op getOp(int i) {
+			return ops.get(i);
+		}
+
+		public String getError(int i) {
+			return errors[i];
+		}
+
+		public boolean isApplied(int i) {
+			return errors[i] == null;
+		}
+
+		/* @return true if no operation that must not fail has failed */
+		public boolean isSuccess() {
+			for (int i = 0; i < errors.length; i++) {
+				if (errors[i] != null && !ops.get(i).mayFail) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/* @return true if all the operations have been applied */
+		public boolean isComplete() {
+			for (String error : errors) {
+				if (error != null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public boolean isRolledBack() {
+			return rolledBack;
+		}
+	}
+
+	private final RoutingBackend backend;
+	private final List<Op> ops = new ArrayList<>();
+
+	public RouteTransaction() {
+		this(RoutingBackends.getDefault());
+	}
+
+	public RouteTransaction(RoutingBackend backend) {
+		this.backend = backend;
+	}
+
+	public RouteTransaction add(Op op) {
+		ops.add(op);
+		return this;
+	}
+
+	public RouteTransaction addRule(int family, String from, int table) {
+		return add(Op.rule(family, from, table));
+	}
+
+	public RouteTransaction deleteRule(int family, int prio) {
+		ops.add(new Op(OpType.RULE_DEL, family, null, 0, null, null, 0, prio, true));
+		return this;
+	}
+
+	public RouteTransaction addLinkRoute(int family, String subnet, int prefix, String dev, int table) {
+		return add(Op.linkRoute(family, subnet, prefix, dev, table));
+	}
+
+	public RouteTransaction addDefaultRoute(int family, String gateway, String dev, int table) {
+		return add(Op.defaultRoute(family, gateway, dev, table));
+	}
+
+	public RouteTransaction flushTable(int family, int table) {
+		ops.add(new Op(OpType.ROUTE_FLUSH, family, null, 0, null, null, table, 0, true));
+		return this;
+	}
+
+	public boolean isEmpty() {
+		return ops.isEmpty();
+	}
+
+	public List<Op> getOps() {
+		return Collections.unmodifiableList(ops);
+	}
+
+	/**
+	 * Submit all the operations.
+	 *
+	 * @param rollback undo the applied operations if one that must not fail
+	 *                 did fail
+	 */
+	public Result commit(boolean rollback) {
+		Result result = new Result(new ArrayList<>(ops), backend.apply(ops));
+		if (!rollback || result.isSuccess()) {
+			return result;
+		}
+
+		List<Op> undo = new ArrayList<>();
+		for (int i = ops.size() - 1; i >= 0; i--) {
+			Op inverse = ops.get(i).inverse();
+			if (inverse != null && result.isApplied(i)) {
+				undo.add(inverse);
+			}
+		}
+		if (!undo.isEmpty()) {
+			backend.apply(undo);
+		}
+		result.rolledBack = true;
+
+		return result;
+	}
+}
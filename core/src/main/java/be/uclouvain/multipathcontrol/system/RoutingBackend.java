@@ -0,0 +1,44 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.util.List;
+
+import be.uclouvain.multipathcontrol.system.RouteTransaction.Op;
+
+/**
+ * Applies policy routing changes to the kernel and reads its rules.
+ */
+public interface RoutingBackend {
+
+	/**
+	 * Apply the operations in order, a failure does not stop the next ones.
+	 *
+	 * @return the error of each operation, null if it has been applied
+	 */
+	String[] apply(List<Op> ops);
+
+	/* @return all the rules of this IP version */
+	RuleIndex dumpRules(int family);
+
+	/* @return the priorities of the rules of this IP version using table */
+	int[] rulePriorities(int family, int table);
+}
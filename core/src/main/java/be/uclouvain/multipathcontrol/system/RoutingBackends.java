@@ -0,0 +1,47 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+/**
+ * Selection of the RoutingBackend: netlink if the native library is
+ * available, the ip command otherwise. Rule dumps are cached.
+ */
+public class RoutingBackends {
+
+	private static RoutingBackend defaultBackend = null;
+
+	public static synchronized RoutingBackend getDefault() {
+		if (defaultBackend == null) {
+			RoutingBackend shell = new ShellRoutingBackend();
+			if (NetlinkRoutingBackend.isAvailable()) {
+				defaultBackend = new CachingRoutingBackend(new NetlinkRoutingBackend(shell));
+			} else {
+				defaultBackend = new CachingRoutingBackend(shell);
+			}
+		}
+		return defaultBackend;
+	}
+
+	/* e.g. to force the shell backend */
+	public static synchronized void setDefault(RoutingBackend backend) {
+		defaultBackend = backend;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import be.uclouvain.multipathcontrol.system.RouteTransaction.Op;
+import be.uclouvain.multipathcontrol.system.RouteTransaction.OpType;
+
+/**
+ * Model of the rules and routes installed in each table we manage.
+ *
+ * Instead of flushing a table and installing everything again, only the
+ * difference between what is installed and what is desired is applied: the
+ * subflows using an unchanged address never lose their routes.
+ *
+ * The content of a table is unknown until it has been reset once, and again
+ * after a transaction that had to be rolled back or was not fully applied.
+ */
+public class RoutingState {
+
+	/* table -> RULE_ADD and ROUTE_ADD operations applied to it */
+	private final Map<Integer, Set<Op>> installed = new HashMap<>();
+
+	public boolean isKnown(int table) {
+		return installed.containsKey(table);
+	}
+
+	public void forget(int table) {
+		installed.remove(table);
+	}
+
+	/**
+	 * Add to tx the minimal changes to go from the installed state of a known
+	 * table to the desired one.
+	 *
+	 * New rules are added before the old ones are removed and old routes are
+	 * removed before the new ones are added (a table cannot have two default
+	 * routes).
+	 */
+	public void diff(int table, Set<Op> desired, RouteTransaction tx) {
+		Set<Op> current = installed.get(table);
+
+		for (Op op : desired) {
+			if (op.type == OpType.RULE_ADD && !current.contains(op)) {
+				tx.add(op);
+			}
+		}
+		for (Op op : current) {
+			if (op.type == OpType.ROUTE_ADD && !desired.contains(op)) {
+				tx.add(op.inverse());
+			}
+		}
+		for (Op op : desired) {
+			if (op.type == OpType.ROUTE_ADD && !current.contains(op)) {
+				tx.add(op);
+			}
+		}
+		for (Op op : current) {
+			if (op.type == OpType.RULE_ADD && !desired.contains(op)) {
+				tx.add(op.inverse());
+			}
+		}
+	}
+
+	/*
+	 * Record the result of the transaction bringing table to desired. Even if
+	 * the transaction succeeded, a failed removal may have left a stale entry:
+	 * the table is then reset next time.
+	 */
+	public void update(int table, Set<Op> desired, RouteTransaction.Result result) {
+		if (result.isRolledBack() || !result.isComplete()) {
+			forget(table);
+			return;
+		}
+		installed.put(table, new HashSet<>(desired));
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index table -> rule priorities of one IP version, built from a single dump
+ * of all the rules.
+ *
+ * Each rule is a long (table << 32 | priority) in a sorted array: the rules
+ * of a table are found by binary search, without boxing.
+ */
+public class RuleIndex {
+
+	private static final int TABLE_DEFAULT = 253;
+	private static final int TABLE_MAIN = 254;
+	private static final int TABLE_LOCAL = 255;
+
+	private static final String LOOKUP = " lookup ";
+
+	private long[] rules;
+	private int size;
+
+	private RuleIndex(long[] rules, int size) {
+		this.rules = rules;
+		this.size = size;
+		Arrays.sort(this.rules, 0, size);
+	}
+
+	private static long pack(int table, int prio) {
+		return ((long) table << 32) | (prio & 0xffffffffL);
+	}
+
+	/* @param pairs table and priority of each rule: [table, prio, table, ...] */
+	public static RuleIndex fromPairs(int[] pairs) {
+		long[] rules = new long[pairs.length / 2];
+		for (int i = 0; i < rules.length; i++) {
+			rules[i] = pack(pairs[2 * i], pairs[2 * i + 1]);
+		}
+		return new RuleIndex(rules, rules.length);
+	}
+
+	/* Parse the output of "ip rule show", e.g. "32765:	from 10.0.0.5 lookup 1234 " */
+	public static RuleIndex parse(List<String> lines) {
+		long[] rules = new long[lines.size()];
+		int size = 0;
+
+		for (String line : lines) {
+			int len = line.length();
+			int pos = 0;
+			int prio = 0;
+			while (pos < len && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+				prio = prio * 10 + line.charAt(pos) - '0';
+				pos++;
+			}
+			if (pos == 0 || pos == len || line.charAt(pos) != ':') {
+				continue;
+			}
+
+			int lookup = line.indexOf(LOOKUP, pos);
+			if (lookup == -1) {
+				continue;
+			}
+			int table = parseTable(line, lookup + LOOKUP.length());
+			if (table > 0) {
+				rules[size++] = pack(table, prio);
+			}
+		}
+
+		return new RuleIndex(rules, size);
+	}
+
+	/* Table id or name at start, -1 if unknown */
+	private static int parseTable(String line, int start) {
+		int len = line.length();
+		int pos = start;
+		int table = 0;
+		while (pos < len && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+			table = table * 10 + line.charAt(pos) - '0';
+			pos++;
+		}
+		if (pos > start) {
+			return table;
+		}
+
+		if (line.startsWith("main", start)) {
+			return TABLE_MAIN;
+		}
+		if (line.startsWith("local", start)) {
+			return TABLE_LOCAL;
+		}
+		if (line.startsWith("default", start)) {
+			return TABLE_DEFAULT;
+		}
+		return -1;
+	}
+
+	/* Index of the first rule of table (or where it would be) */
+	private int first(int table) {
+		long key = pack(table, 0);
+		int lo = 0;
+		int hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (rules[mid] < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	public synchronized int[] getPriorities(int table) {
+		int start = first(table);
+		int end = start;
+		while (end < size && (int) (rules[end] >>> 32) == table) {
+			end++;
+		}
+
+		int[] prios = new int[end - start];
+		for (int i = start; i < end; i++) {
+			prios[i - start] = (int) rules[i];
+		}
+		return prios;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/*
+	 * A rule with this priority has been removed ("ip rule del prio N").
+	 *
+	 * @return false if several rules have it: the removed one is unknown
+	 */
+	synchronized boolean removePriority(int prio) {
+		int found = -1;
+		for (int i = 0; i < size; i++) {
+			if ((int) rules[i] == prio) {
+				if (found != -1) {
+					return false;
+				}
+				found = i;
+			}
+		}
+		if (found != -1) {
+			System.arraycopy(rules, found + 1, rules, found, size - found - 1);
+			size--;
+		}
+		return true;
+	}
+}
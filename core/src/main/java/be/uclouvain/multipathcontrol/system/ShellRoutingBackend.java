@@ -0,0 +1,180 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import be.uclouvain.multipathcontrol.system.RouteTransaction.Op;
+
+/**
+ * Routing backend using the ip command in a Shell: the operations are
+ * submitted with one "ip -force -batch -" per IP version, in one round trip.
+ *
+ * "ip -force -batch" keeps going after a failure and reports each failing
+ * line, which gives a result per operation.
+ */
+public class ShellRoutingBackend implements RoutingBackend {
+
+	/* Printed with the exit code of ip after the batch of each IP version */
+	private static final String END_OF_BATCH = "__MPCTRL_BATCH__ ";
+
+	private final Shell shell;
+
+	public ShellRoutingBackend() {
+		this(RootShell.getInstance());
+	}
+
+	public ShellRoutingBackend(Shell shell) {
+		this.shell = shell;
+	}
+
+	/*
+	 * Parse "ip -force -batch" output: an error is followed by "Command failed -:N"
+	 *
+	 * @return the exit code of ip, from END_OF_BATCH
+	 */
+	private static int parseBatchOutput(Iterator<String> output, int[] lineToOp, String[] errors) {
+		StringBuilder error = new StringBuilder();
+		while (output.hasNext()) {
+			String line = output.next();
+			if (line.startsWith(END_OF_BATCH)) {
+				try {
+					return Integer.parseInt(line.substring(END_OF_BATCH.length()).trim());
+				} catch (NumberFormatException e) {
+					return CmdResult.NO_EXIT_CODE;
+				}
+			}
+
+			if (!line.startsWith("Command failed")) {
+				if (error.length() > 0) {
+					error.append("; ");
+				}
+				error.append(line.trim());
+				continue;
+			}
+
+			int pos = line.lastIndexOf(':');
+			try {
+				int lineNb = Integer.parseInt(line.substring(pos + 1).trim());
+				if (lineNb >= 1 && lineNb <= lineToOp.length) {
+					errors[lineToOp[lineNb - 1]] = error.length() > 0 ? error.toString() : line;
+				}
+			} catch (NumberFormatException ignored) {}
+			error.setLength(0);
+		}
+		return CmdResult.NO_EXIT_CODE;
+	}
+
+	private static void setErrors(int[] lineToOp, String[] errors, String error, boolean onlyIfNoneReported) {
+		if (onlyIfNoneReported) {
+			for (int i : lineToOp) {
+				if (errors[i] != null) {
+					return;
+				}
+			}
+		}
+		for (int i : lineToOp) {
+			errors[i] = error;
+		}
+	}
+
+	/*
+	 * IPv4 and IPv6 operations cannot be mixed in one "ip -batch": all the
+	 * batches are sent to the shell at once, in one script.
+	 */
+	@Override
+	public String[] apply(List<Op> ops) {
+		String[] errors = new String[ops.size()];
+		List<Integer> families = new ArrayList<>(2);
+		for (Op op : ops) {
+			if (!families.contains(op.family)) {
+				families.add(op.family);
+			}
+		}
+
+		StringBuilder script = new StringBuilder();
+		int[][] lineToOps = new int[families.size()][];
+		for (int f = 0; f < families.size(); f++) {
+			int family = families.get(f);
+			List<String> lines = new ArrayList<>();
+			List<Integer> indexes = new ArrayList<>();
+			for (int i = 0; i < ops.size(); i++) {
+				if (ops.get(i).family == family) {
+					lines.add(ops.get(i).toBatchLine());
+					indexes.add(i);
+				}
+			}
+
+			lineToOps[f] = new int[indexes.size()];
+			for (int i = 0; i < lineToOps[f].length; i++) {
+				lineToOps[f][i] = indexes.get(i);
+			}
+
+			RootShell.appendWithInput(script, "ip -" + family + " -force -batch -", lines);
+			script.append("echo \"").append(END_OF_BATCH).append("$?\"\n");
+		}
+
+		CmdResult result;
+		try {
+			result = shell.run(script.toString());
+		} catch (IOException e) {
+			for (int[] lineToOp : lineToOps) {
+				setErrors(lineToOp, errors, e.toString(), false);
+			}
+			return errors;
+		}
+
+		Iterator<String> output = result.getOutput().iterator();
+		for (int[] lineToOp : lineToOps) {
+			if (result.isTimedOut()) {
+				setErrors(lineToOp, errors, "ip -batch timed out", false);
+				continue;
+			}
+
+			int exitCode = parseBatchOutput(output, lineToOp, errors);
+			if (exitCode != 0) {
+				// failing lines should have been reported, but be safe
+				setErrors(lineToOp, errors, "ip -batch exited with " + exitCode, true);
+			}
+		}
+
+		return errors;
+	}
+
+	@Override
+	public RuleIndex dumpRules(int family) {
+		List<String> lines;
+		try {
+			lines = shell.run("ip -" + family + " rule show").getOutput();
+		} catch (IOException e) {
+			lines = new ArrayList<>(0);
+		}
+		return RuleIndex.parse(lines);
+	}
+
+	@Override
+	public int[] rulePriorities(int family, int table) {
+		return dumpRules(family).getPriorities(table);
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gives each interface its own routing table: two interfaces never share a
+ * table, so resetting one cannot flush the routes of the other.
+ *
+ * The assignments are kept in a Store to survive restarts of the service,
+ * and the table of an interface which disappeared can be released.
+ */
+public class TableAllocator {
+
+	public interface Store {
+		Map<String, Integer> load();
+
+		void save(String iface, int table);
+
+		void remove(String iface);
+	}
+
+	private static final int MIN_TABLE = 1;
+	private static final int MAX_TABLE = 32765;
+	/* default, main and local */
+	private static final int RESERVED_MIN = 253;
+	private static final int RESERVED_MAX = 255;
+
+	private static TableAllocator instance = null;
+
+	private final Store store;
+	private final Map<String, Integer> tables;
+	private final Set<Integer> used = new HashSet<>();
+
+	public static synchronized TableAllocator getInstance() {
+		if (instance == null) {
+			// nothing is kept across restarts until init() is called
+			instance = new TableAllocator(null);
+		}
+		return instance;
+	}
+
+	public static synchronized void init(Store store) {
+		instance = new TableAllocator(store);
+	}
+
+	private TableAllocator(Store store) {
+		this.store = store;
+		tables = store == null ? new HashMap<String, Integer>() : new HashMap<>(store.load());
+		used.addAll(tables.values());
+	}
+
+	private static boolean isReserved(int table) {
+		return table >= RESERVED_MIN && table <= RESERVED_MAX;
+	}
+
+	/* the table used by previous versions, to keep it when it is free */
+	private static int legacyTable(String iface) {
+		return Math.abs(iface.hashCode()) % MAX_TABLE + MIN_TABLE;
+	}
+
+	public synchronized int getTable(String iface) {
+		Integer table = tables.get(iface);
+		if (table != null) {
+			return table;
+		}
+
+		int candidate = legacyTable(iface);
+		while (used.contains(candidate) || isReserved(candidate)) {
+			candidate = candidate >= MAX_TABLE ? MIN_TABLE : candidate + 1;
+		}
+
+		tables.put(iface, candidate);
+		used.add(candidate);
+		if (store != null) {
+			store.save(iface, candidate);
+		}
+		return candidate;
+	}
+
+	public synchronized boolean hasTable(String iface) {
+		return tables.containsKey(iface);
+	}
+
+	/* @return true if table is given to an interface: its routes are ours */
+	public synchronized boolean isAllocated(int table) {
+		return used.contains(table);
+	}
+
+	/* The table of iface can be given to another interface */
+	public synchronized void release(String iface) {
+		Integer table = tables.remove(iface);
+		if (table == null) {
+			return;
+		}
+		used.remove(table);
+		if (store != null) {
+			store.remove(iface);
+		}
+	}
+
+	/* @return the interfaces having a table but not in present */
+	public synchronized List<String> getVanished(Collection<String> present) {
+		List<String> vanished = new ArrayList<>();
+		for (String iface : tables.keySet()) {
+			if (!present.contains(iface)) {
+				vanished.add(iface);
+			}
+		}
+		return vanished;
+	}
+}
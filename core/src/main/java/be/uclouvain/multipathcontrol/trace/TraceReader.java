@@ -0,0 +1,92 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.trace;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a trace written by TraceWriter, record by record.
+ */
+public class TraceReader {
+
+	private final DataInputStream in;
+	private final long startTime;
+	private long time = 0;
+
+	public TraceReader(InputStream in) throws IOException {
+		this.in = new DataInputStream(in);
+		if (this.in.readInt() != TraceWriter.MAGIC) {
+			throw new IOException("Not a trace");
+		}
+		int version = this.in.readByte();
+		if (version != TraceWriter.VERSION) {
+			throw new IOException("Unknown trace version: " + version);
+		}
+		startTime = this.in.readLong();
+	}
+
+	/* @return wall-clock time of the start of the trace, in ms */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid varint");
+	}
+
+	/* @return the next record, null at the end of the trace */
+	public TraceRecord next() throws IOException {
+		long delta;
+		try {
+			delta = readVarLong();
+		} catch (EOFException e) {
+			return null;
+		}
+
+		// a truncated last record (e.g. killed while writing) ends the trace
+		try {
+			int type = in.readUnsignedByte();
+			String data = in.readUTF();
+			if (type >= TraceRecord.Type.values().length) {
+				throw new IOException("Unknown record type: " + type);
+			}
+			time += delta;
+			return new TraceRecord(time, TraceRecord.Type.values()[type], data);
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.trace;
+
+/**
+ * One event of a trace, time in ms since the start of the trace.
+ */
+public class TraceRecord {
+
+	public enum Type {
+		/* line of "ip monitor": link, address or route change */
+		IP,
+		/* CONNECTIVITY_ACTION: "type/subtype state", "none" without network */
+		CONNECTIVITY,
+		/* cellular signal: "level dBm" */
+		SIGNAL,
+		/* one interface when the trace starts: "name addr/prefix ..." */
+		IFACE
+	}
+
+	public final long time;
+	public final Type type;
+	public final String data;
+
+	public TraceRecord(long time, Type type, String data) {
+		this.time = time;
+		this.type = type;
+		this.data = data;
+	}
+
+	@Override
+	public String toString() {
+		return time + " " + type + " " + data;
+	}
+}
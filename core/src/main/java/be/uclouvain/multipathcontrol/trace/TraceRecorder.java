@@ -0,0 +1,112 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.trace;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import be.uclouvain.multipathcontrol.ifaces.Iface;
+import be.uclouvain.multipathcontrol.ifaces.InterfaceSource;
+import be.uclouvain.multipathcontrol.system.Clock;
+
+/**
+ * Records the events of the service in a trace, when started. Hooks call
+ * record() anywhere, on any thread: it does nothing if no trace is recorded.
+ *
+ * The records are buffered until flush(): the service is usually killed,
+ * without stop().
+ */
+public class TraceRecorder {
+
+	private static final TraceRecorder instance = new TraceRecorder();
+
+	private volatile TraceWriter writer = null;
+
+	public static TraceRecorder getInstance() {
+		return instance;
+	}
+
+	private TraceRecorder() {}
+
+	public synchronized void start(OutputStream out, Clock clock) throws IOException {
+		stop();
+		writer = new TraceWriter(out, clock);
+	}
+
+	public synchronized void stop() {
+		TraceWriter w = writer;
+		writer = null;
+		if (w != null) {
+			try {
+				w.close();
+			} catch (IOException ignored) {}
+		}
+	}
+
+	public boolean isRecording() {
+		return writer != null;
+	}
+
+	public void record(TraceRecord.Type type, String data) {
+		TraceWriter w = writer;
+		if (w == null || data == null) {
+			return;
+		}
+		try {
+			w.write(type, data);
+		} catch (IOException e) {
+			// e.g. disk full: stop recording, the trace is still readable
+			stop();
+		}
+	}
+
+	public void flush() {
+		TraceWriter w = writer;
+		if (w == null) {
+			return;
+		}
+		try {
+			w.flush();
+		} catch (IOException e) {
+			stop();
+		}
+	}
+
+	/* The state the next events apply to: one IFACE record per interface up */
+	public void recordInterfaces(InterfaceSource source) {
+		if (!isRecording()) {
+			return;
+		}
+		try {
+			for (Iface iface : source.getInterfaces()) {
+				if (!iface.isUp() || iface.isLoopback()) {
+					continue;
+				}
+				StringBuilder data = new StringBuilder(iface.getName());
+				for (Iface.Address address : iface.getAddresses()) {
+					data.append(' ').append(address);
+				}
+				record(TraceRecord.Type.IFACE, data.toString());
+			}
+		} catch (IOException ignored) {}
+		flush();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.trace;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import be.uclouvain.multipathcontrol.system.Clock;
+
+/**
+ * Writes a trace: a header (magic, version, start time) then, for each
+ * record, the ms since the previous one (varint), its type and its data.
+ */
+public class TraceWriter {
+
+	static final int MAGIC = 0x4d505452; // "MPTR"
+	static final int VERSION = 1;
+
+	private final DataOutputStream out;
+	private final Clock clock;
+	private final long start;
+	private long last;
+
+	public TraceWriter(OutputStream out, Clock clock) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.clock = clock;
+		this.start = clock.currentTimeMillis();
+		this.last = 0;
+
+		this.out.writeInt(MAGIC);
+		this.out.writeByte(VERSION);
+		this.out.writeLong(start);
+	}
+
+	static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public synchronized void write(TraceRecord.Type type, String data) throws IOException {
+		// the wall clock can go back: never write a negative delta
+		long time = Math.max(last, clock.currentTimeMillis() - start);
+		writeVarLong(out, time - last);
+		out.writeByte(type.ordinal());
+		out.writeUTF(data);
+		last = time;
+	}
+
+	public synchronized void flush() throws IOException {
+		out.flush();
+	}
+
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SampleIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	private static List<Long> read(SampleIndex index, long from, long to) throws IOException {
+		final List<Long> positions = new ArrayList<>();
+		index.read(from, to, new SampleIndex.Visitor() {
+			@Override
+			public boolean visit(long timestamp, long position) {
+				assertEquals(timestamp * 100, position);
+				positions.add(position);
+				return true;
+			}
+		});
+		return positions;
+	}
+
+	@Before
+	public void setUp() {
+		file = new File(folder.getRoot(), "HANDOVER.idx");
+	}
+
+	@Test
+	public void range() throws IOException {
+		SampleIndex index = new SampleIndex(file, 1000);
+		for (long t = 1; t <= 600; t++) {
+			index.append(t * 10, t * 1000);
+		}
+		assertEquals(600, index.size());
+
+		// from and to included, between two samples, over several pages
+		assertEquals(26, read(index, 150, 400).size());
+		assertEquals(Long.valueOf(15000), read(index, 150, 400).get(0));
+		assertEquals(600, read(index, Long.MIN_VALUE, Long.MAX_VALUE).size());
+		assertEquals(0, read(index, 6001, Long.MAX_VALUE).size());
+		assertEquals(0, read(index, 11, 19).size());
+		index.close();
+	}
+
+	@Test
+	public void compactKeepsTheNewest() throws IOException {
+		SampleIndex index = new SampleIndex(file, 8);
+		for (long t = 1; t <= 9; t++) {
+			index.append(t, t * 100);
+		}
+		// 4 kept when full, then the 9th
+		assertEquals(5, index.size());
+		assertEquals(Long.valueOf(500), read(index, Long.MIN_VALUE, Long.MAX_VALUE).get(0));
+		index.close();
+
+		index = new SampleIndex(file, 8);
+		assertEquals(5, index.size());
+		index.close();
+	}
+
+	@Test
+	public void partialEntryRemoved() throws IOException {
+		SampleIndex index = new SampleIndex(file, 1000);
+		for (long t = 1; t <= 3; t++) {
+			index.append(t, t * 100);
+		}
+		index.close();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 7);
+		raf.close();
+
+		index = new SampleIndex(file, 1000);
+		assertEquals(2, index.size());
+		index.append(4, 400);
+		assertEquals(3, read(index, Long.MIN_VALUE, Long.MAX_VALUE).size());
+		index.close();
+	}
+}
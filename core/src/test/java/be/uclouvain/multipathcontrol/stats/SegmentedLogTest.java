@@ -0,0 +1,215 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentedLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dir;
+
+	private static class Collector implements SegmentedLog.Visitor {
+		final List<Long> timestamps = new ArrayList<>();
+		final List<Long> positions = new ArrayList<>();
+
+		@Override
+		public boolean visit(long position, long timestamp, byte[] data) {
+			assertArrayEquals(data(timestamp), data);
+			timestamps.add(timestamp);
+			positions.add(position);
+			return true;
+		}
+	}
+
+	/* 20 bytes, different for each timestamp */
+	private static byte[] data(long timestamp) {
+		byte[] data = new byte[20];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (timestamp + i);
+		}
+		return data;
+	}
+
+	private static Collector readAll(SegmentedLog log) throws IOException {
+		Collector collector = new Collector();
+		log.read(Long.MIN_VALUE, Long.MAX_VALUE, collector);
+		return collector;
+	}
+
+	private File[] segments() {
+		File[] files = dir.listFiles();
+		Arrays.sort(files);
+		return files;
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		dir = new File(folder.getRoot(), "stats");
+	}
+
+	@Test
+	public void appendAndRead() throws IOException {
+		SegmentedLog log = new SegmentedLog(dir, 1024, 4);
+		assertTrue(log.isEmpty());
+		List<Long> positions = new ArrayList<>();
+		for (long t = 10; t <= 50; t += 10) {
+			positions.add(log.append(t, data(t)));
+		}
+
+		Collector all = readAll(log);
+		assertEquals(5, all.timestamps.size());
+		assertEquals(positions, all.positions);
+		assertArrayEquals(data(30), log.readAt(positions.get(2)));
+
+		Collector range = new Collector();
+		log.read(20, 40, range);
+		assertEquals(3, range.timestamps.size());
+		assertEquals(Long.valueOf(20), range.timestamps.get(0));
+		assertEquals(Long.valueOf(40), range.timestamps.get(2));
+
+		Collector from = new Collector();
+		log.readFrom(positions.get(3), from);
+		assertEquals(positions.subList(3, 5), from.positions);
+		log.close();
+	}
+
+	@Test
+	public void rollAndRemoveOldSegments() throws IOException {
+		// 36 bytes per record: 2 per segment
+		SegmentedLog log = new SegmentedLog(dir, 80, 3);
+		for (long t = 1; t <= 10; t++) {
+			log.append(t, data(t));
+		}
+		assertEquals(3, segments().length);
+		assertEquals(6 * 36, log.size());
+
+		Collector all = readAll(log);
+		assertEquals(Long.valueOf(5), all.timestamps.get(0));
+		assertEquals(6, all.timestamps.size());
+
+		Collector range = new Collector();
+		log.read(6, 8, range);
+		assertEquals(3, range.timestamps.size());
+		log.close();
+
+		// sealed segments are found again
+		log = new SegmentedLog(dir, 80, 3);
+		assertEquals(6, readAll(log).timestamps.size());
+		log.close();
+	}
+
+	@Test
+	public void failedRollKeepsTheLog() throws IOException {
+		SegmentedLog log = new SegmentedLog(dir, 80, 3);
+		log.append(1, data(1));
+		log.append(2, data(2));
+
+		// the next segment cannot be opened
+		File next = new File(dir, segments()[0].getName().replace("00.seg", "01.seg"));
+		assertTrue(next.mkdir());
+		try {
+			log.append(3, data(3));
+			fail("rolled to " + next);
+		} catch (IOException expected) {}
+		assertEquals(2, readAll(log).timestamps.size());
+
+		assertTrue(next.delete());
+		log.append(3, data(3));
+		assertEquals(Arrays.asList(1L, 2L, 3L), readAll(log).timestamps);
+		assertEquals(2, segments().length);
+		log.close();
+	}
+
+	@Test
+	public void largeRecordAlone() throws IOException {
+		SegmentedLog log = new SegmentedLog(dir, 80, 8);
+		log.append(1, data(1));
+		long position = log.append(2, new byte[200]);
+		log.append(3, data(3));
+		assertEquals(200, log.readAt(position).length);
+		assertEquals(3, segments().length);
+		log.close();
+	}
+
+	@Test
+	public void recoverTruncatedTail() throws IOException {
+		SegmentedLog log = new SegmentedLog(dir, 1024, 4);
+		for (long t = 1; t <= 3; t++) {
+			log.append(t, data(t));
+		}
+		log.close();
+
+		// killed while writing the last record
+		File segment = segments()[0];
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		file.setLength(file.length() - 5);
+		file.close();
+
+		log = new SegmentedLog(dir, 1024, 4);
+		assertEquals(2, readAll(log).timestamps.size());
+		assertEquals(2 * 36, segment.length());
+
+		// the next record follows the valid ones
+		long position = log.append(4, data(4));
+		assertEquals(2 * 36, position & 0xffffffffL);
+		assertEquals(3, readAll(log).timestamps.size());
+		log.close();
+	}
+
+	@Test
+	public void recoverCorruptedTail() throws IOException {
+		SegmentedLog log = new SegmentedLog(dir, 1024, 4);
+		long first = log.append(1, data(1));
+		long second = log.append(2, data(2));
+		log.close();
+
+		// bad CRC: the data of the last record has not reached the disk
+		RandomAccessFile file = new RandomAccessFile(segments()[0], "rw");
+		file.seek((second & 0xffffffffL) + SegmentedLog.HEADER + 3);
+		file.write(0xff);
+		file.close();
+
+		log = new SegmentedLog(dir, 1024, 4);
+		assertArrayEquals(data(1), log.readAt(first));
+		assertNull(log.readAt(second));
+		assertEquals(1, readAll(log).timestamps.size());
+		log.close();
+	}
+}
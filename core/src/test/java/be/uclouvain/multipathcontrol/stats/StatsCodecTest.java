@@ -0,0 +1,150 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StatsCodecTest {
+
+	private static StatsRecord sample(int i) {
+		StatsRecord record = new StatsRecord(StatsCategories.HANDOVER, 1500000000000L + i * 5000L);
+		record.putLong("timestamp", record.getTimestamp());
+		record.putString("wifiMac", "00:11:22:33:44:55");
+		record.putInt("mergedEvents", 1 + i % 3);
+		record.putBoolean("airplane", i % 2 == 0);
+		record.putString("wifiSSID", i < 3 ? "home" : "office");
+		// key out of the static table
+		record.putLong("hoSetupWifiUs", 1000L * i);
+		if (i == 2) {
+			record.putString("extIp", "198.51.100.7");
+		}
+		return record;
+	}
+
+	private static void assertSame(StatsRecord expected, StatsRecord actual) {
+		assertEquals(expected.getCategory(), actual.getCategory());
+		assertEquals(expected.getTimestamp(), actual.getTimestamp());
+		assertEquals(expected.getFields(), actual.getFields());
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		StatsCodec.Encoder encoder = new StatsCodec.Encoder(4);
+		StatsCodec.Decoder decoder = new StatsCodec.Decoder();
+		for (int i = 0; i < 10; i++) {
+			StatsRecord record = sample(i);
+			byte[] data = encoder.encode(record, 0);
+			assertEquals(i % 4 == 0, StatsCodec.isKeyframe(data));
+			assertSame(record, decoder.decode(data));
+		}
+	}
+
+	@Test
+	public void deltasAreSmaller() throws IOException {
+		StatsCodec.Encoder encoder = new StatsCodec.Encoder(64);
+		int keyframe = encoder.encode(sample(0), 0).length;
+		int delta = encoder.encode(sample(1), 0).length;
+		assertTrue(delta < keyframe / 2);
+	}
+
+	@Test
+	public void decodeFromKeyframe() throws IOException {
+		StatsCodec.Encoder encoder = new StatsCodec.Encoder(64);
+		List<byte[]> chain = new ArrayList<>();
+		long offset = 0;
+		long[] offsets = new long[5];
+		for (int i = 0; i < 5; i++) {
+			// as in a log: header of 16 bytes before each record
+			byte[] data = encoder.encode(sample(i), 16);
+			chain.add(data);
+			offsets[i] = offset;
+			offset += 16 + data.length;
+		}
+
+		assertEquals(offsets[3], StatsCodec.getKeyframeDistance(chain.get(3)));
+		assertEquals(0, StatsCodec.getKeyframeDistance(chain.get(0)));
+
+		// a record cannot be decoded without its chain
+		try {
+			new StatsCodec.Decoder().decode(chain.get(3));
+			fail();
+		} catch (IOException expected) {}
+
+		StatsCodec.Decoder decoder = new StatsCodec.Decoder();
+		for (int i = 0; i < 3; i++) {
+			decoder.decode(chain.get(i));
+		}
+		assertSame(sample(3), decoder.decode(chain.get(3)));
+	}
+
+	@Test
+	public void resetStartsAKeyframe() throws IOException {
+		StatsCodec.Encoder encoder = new StatsCodec.Encoder(64);
+		encoder.encode(sample(0), 0);
+		encoder.reset();
+		byte[] data = encoder.encode(sample(1), 0);
+		assertTrue(StatsCodec.isKeyframe(data));
+		assertSame(sample(1), new StatsCodec.Decoder().decode(data));
+	}
+
+	@Test
+	public void truncated() {
+		StatsCodec.Encoder encoder = new StatsCodec.Encoder(64);
+		byte[] keyframe = encoder.encode(sample(2), 0);
+		byte[] delta = encoder.encode(sample(3), 0);
+
+		for (int length = 0; length < keyframe.length; length++) {
+			try {
+				new StatsCodec.Decoder().decode(Arrays.copyOf(keyframe, length));
+				fail("decoded " + length + " bytes of " + keyframe.length);
+			} catch (IOException expected) {}
+		}
+
+		for (int length = 0; length < delta.length; length++) {
+			StatsCodec.Decoder decoder = new StatsCodec.Decoder();
+			try {
+				decoder.decode(keyframe);
+				decoder.decode(Arrays.copyOf(delta, length));
+				fail("decoded " + length + " bytes of " + delta.length);
+			} catch (IOException expected) {}
+		}
+	}
+
+	@Test
+	public void chainFull() {
+		StatsCodec.Encoder encoder = new StatsCodec.Encoder(2);
+		assertTrue(encoder.isChainFull());
+		encoder.encode(sample(0), 0);
+		assertFalse(encoder.isChainFull());
+		encoder.encode(sample(1), 0);
+		assertTrue(encoder.isChainFull());
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class GatewayResolverTest {
+
+	private static class FakeClock implements Clock {
+		long now = 1000;
+
+		@Override
+		public long currentTimeMillis() {
+			return now;
+		}
+
+		@Override
+		public long nanoTime() {
+			return now * 1000000;
+		}
+	}
+
+	/*
+	 * "ip route show table all": the default route of rmnet0 in the table of
+	 * its network, after the one we set in ours (MANAGED_TABLE)
+	 */
+	private static class FakeShell implements Shell {
+		final List<String> commands = new ArrayList<>();
+		final List<String> rmnet0Routes;
+
+		FakeShell(List<String> rmnet0Routes) {
+			this.rmnet0Routes = rmnet0Routes;
+		}
+
+		@Override
+		public CmdResult run(String cmd) {
+			commands.add(cmd);
+			if (cmd.equals("ip -4 route show table all dev rmnet0")) {
+				return new CmdResult(0, rmnet0Routes);
+			}
+			return new CmdResult(0, new ArrayList<String>(0));
+		}
+	}
+
+	/* The table of rmnet0 in the ip/route_table_all_rmnet0 fixture */
+	private static final int MANAGED_TABLE = 1000;
+
+	private static class FakeStore implements TableAllocator.Store {
+		@Override
+		public Map<String, Integer> load() {
+			return Collections.singletonMap("rmnet0", MANAGED_TABLE);
+		}
+
+		@Override
+		public void save(String iface, int table) {}
+
+		@Override
+		public void remove(String iface) {}
+	}
+
+	private String procRoute;
+	private String procIpv6Route;
+	private FakeClock clock;
+	private FakeShell shell;
+
+	private static String fixture(String name) throws URISyntaxException {
+		return new File(GatewayResolverTest.class.getResource("/" + name).toURI()).getPath();
+	}
+
+	private static List<String> readLines(String path) throws IOException {
+		List<String> lines = new ArrayList<>();
+		BufferedReader in = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			in.close();
+		}
+		return lines;
+	}
+
+	private static String parse(String path, String iface) throws IOException {
+		Reader reader = new FileReader(path);
+		try {
+			return path.endsWith("ipv6_route") ? GatewayResolver.parseProcIpv6Route(reader, iface)
+					: GatewayResolver.parseProcRoute(reader, iface);
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Before
+	public void setUp() throws URISyntaxException, IOException {
+		procRoute = fixture("proc/route");
+		procIpv6Route = fixture("proc/ipv6_route");
+		clock = new FakeClock();
+		shell = new FakeShell(readLines(fixture("ip/route_table_all_rmnet0")));
+		TableAllocator.init(new FakeStore());
+	}
+
+	@Test
+	public void parseProcRoute() throws IOException {
+		assertEquals("192.168.1.1", parse(procRoute, "wlan0"));
+		assertEquals("10.0.2.1", parse(procRoute, "rmnet1"));
+		// default route without RTF_GATEWAY
+		assertNull(parse(procRoute, "rmnet0"));
+		assertNull(parse(procRoute, "eth0"));
+	}
+
+	@Test
+	public void parseProcIpv6Route() throws IOException {
+		assertEquals("fe80:0:0:0:0:0:0:1", parse(procIpv6Route, "wlan0"));
+		assertEquals("2001:db8:0:2:0:0:0:1", parse(procIpv6Route, "rmnet1"));
+		assertNull(parse(procIpv6Route, "rmnet0"));
+		assertNull(parse(procIpv6Route, "lo"));
+	}
+
+	@Test
+	public void propertiesBeforeProc() {
+		GatewayResolver resolver = new GatewayResolver(new GatewayResolver.PropertySource() {
+			@Override
+			public String get(String key) {
+				return key.equals("dhcp.wlan0.gateway") ? "192.168.1.254" : "";
+			}
+		}, procRoute, procIpv6Route, shell, clock);
+
+		assertEquals("192.168.1.254", resolver.getGateway("wlan0", 4));
+		// empty property: from /proc
+		assertEquals("10.0.2.1", resolver.getGateway("rmnet1", 4));
+		assertEquals(0, shell.commands.size());
+	}
+
+	@Test
+	public void otherTablesFromIPRoute() {
+		GatewayResolver resolver = new GatewayResolver(null, procRoute, procIpv6Route, shell, clock);
+
+		assertEquals("10.0.3.1", resolver.getGateway("rmnet0", 4));
+		assertNull(resolver.getGateway("rmnet0", 6));
+		assertEquals(Arrays.asList("ip -4 route show table all dev rmnet0",
+				"ip -6 route show table all dev rmnet0"), shell.commands);
+	}
+
+	@Test
+	public void managedTablesSkipped() {
+		GatewayResolver resolver = new GatewayResolver(null, procRoute, procIpv6Route, shell, clock);
+
+		// our table is listed first: its gateway may be the one of the last network
+		assertEquals("10.0.3.1", resolver.getGateway("rmnet0", 4));
+
+		TableAllocator.getInstance().release("rmnet0");
+		resolver.invalidate("rmnet0");
+		assertEquals("10.0.9.1", resolver.getGateway("rmnet0", 4));
+	}
+
+	@Test
+	public void missingProcFiles() {
+		GatewayResolver resolver = new GatewayResolver(null, "/nonexistent", "/nonexistent",
+				shell, clock);
+
+		assertNull(resolver.getGateway("wlan0", 4));
+		assertEquals("10.0.3.1", resolver.getGateway("rmnet0", 4));
+	}
+
+	@Test
+	public void cachedUntilInvalidated() {
+		GatewayResolver resolver = new GatewayResolver(null, procRoute, procIpv6Route, shell, clock);
+
+		assertEquals("10.0.3.1", resolver.getGateway("rmnet0", 4));
+		assertEquals("10.0.3.1", resolver.getGateway("rmnet0", 4));
+		assertEquals(1, shell.commands.size());
+
+		resolver.invalidate("wlan0");
+		assertEquals("10.0.3.1", resolver.getGateway("rmnet0", 4));
+		assertEquals(1, shell.commands.size());
+
+		resolver.invalidate("rmnet0");
+		assertEquals("10.0.3.1", resolver.getGateway("rmnet0", 4));
+		assertEquals(2, shell.commands.size());
+
+		// a missed route change is seen after the TTL
+		clock.now += 60 * 1000;
+		assertEquals("10.0.3.1", resolver.getGateway("rmnet0", 4));
+		assertEquals(3, shell.commands.size());
+	}
+}
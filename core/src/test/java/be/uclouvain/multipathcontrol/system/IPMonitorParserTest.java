@@ -0,0 +1,100 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IPMonitorParserTest {
+
+	@Test
+	public void link() {
+		IPEvent event = IPMonitorParser.parse(
+				"[LINK]3: wlan0: <BROADCAST,MULTICAST,UP,LOWER_UP> mtu 1500 qdisc mq state UP");
+		assertEquals(IPEvent.Type.LINK, event.type);
+		assertEquals("wlan0", event.iface);
+		assertTrue(event.up);
+		assertFalse(event.deleted);
+
+		event = IPMonitorParser.parse("4: rmnet0@if3: <BROADCAST,MULTICAST,UP> mtu 1500 state DOWN");
+		assertEquals(IPEvent.Type.LINK, event.type);
+		assertEquals("rmnet0", event.iface);
+		assertFalse(event.up);
+
+		event = IPMonitorParser.parse("Deleted 4: rmnet0: <BROADCAST,MULTICAST,UP,LOWER_UP> mtu 1500");
+		assertTrue(event.deleted);
+		assertFalse(event.up);
+	}
+
+	@Test
+	public void address() {
+		IPEvent event = IPMonitorParser.parse(
+				"[ADDR]3: wlan0    inet 192.168.1.10/24 brd 192.168.1.255 scope global wlan0");
+		assertEquals(IPEvent.Type.ADDRESS, event.type);
+		assertEquals("wlan0", event.iface);
+		assertEquals(4, event.family);
+		assertEquals("192.168.1.10", event.address);
+		assertEquals(24, event.prefix);
+
+		event = IPMonitorParser.parse("Deleted 5: rmnet0    inet6 2001:db8::2/64 scope global");
+		assertEquals(IPEvent.Type.ADDRESS, event.type);
+		assertTrue(event.deleted);
+		assertEquals(6, event.family);
+		assertEquals("2001:db8::2", event.address);
+		assertEquals(64, event.prefix);
+	}
+
+	@Test
+	public void route() {
+		IPEvent event = IPMonitorParser.parse("[ROUTE]default via 192.168.1.1 dev wlan0 table 1003 proto static");
+		assertEquals(IPEvent.Type.ROUTE, event.type);
+		assertTrue(event.isDefaultRoute());
+		assertEquals("192.168.1.1", event.gateway);
+		assertEquals("wlan0", event.iface);
+		assertEquals(1003, event.table);
+		assertEquals(4, event.family);
+
+		event = IPMonitorParser.parse("Deleted default via inet6 fe80::1 dev rmnet0 metric 1024");
+		assertTrue(event.deleted);
+		assertEquals("fe80::1", event.gateway);
+		assertEquals(6, event.family);
+		assertEquals(IPEvent.TABLE_MAIN, event.table);
+
+		event = IPMonitorParser.parse("local 192.168.1.10 dev wlan0 table local proto kernel scope host");
+		assertEquals("192.168.1.10", event.address);
+		assertEquals(32, event.prefix);
+		assertEquals(IPEvent.TABLE_LOCAL, event.table);
+		assertFalse(event.isDefaultRoute());
+	}
+
+	@Test
+	public void notEvents() {
+		assertNull(IPMonitorParser.parse(null));
+		assertNull(IPMonitorParser.parse(""));
+		// continuation of the previous event
+		assertNull(IPMonitorParser.parse("    valid_lft forever preferred_lft forever"));
+		assertNull(IPMonitorParser.parse("[NEIGH]192.168.1.1 dev wlan0 lladdr 00:11:22:33:44:55 REACHABLE"));
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.uclouvain.multipathcontrol.system.RouteTransaction.Op;
+
+/**
+ * Against the kernel of the host, with libmpctrl_netlink in
+ * java.library.path: skipped without it. Changes are only made when the
+ * netlink.netns property is true, in a network namespace of its own with lo
+ * up (e.g. "unshare -rn"), never in the one of the host.
+ */
+public class NetlinkRoutingBackendTest {
+
+	private static final int TABLE = 1000;
+
+	/* The changes refused by the kernel are given to it */
+	private static class Fallback implements RoutingBackend {
+		final List<Op> ops = new ArrayList<>();
+
+		@Override
+		public String[] apply(List<Op> ops) {
+			this.ops.addAll(ops);
+			return new String[ops.size()];
+		}
+
+		@Override
+		public RuleIndex dumpRules(int family) {
+			throw new AssertionError("dumps do not need any privilege");
+		}
+
+		@Override
+		public int[] rulePriorities(int family, int table) {
+			return dumpRules(family).getPriorities(table);
+		}
+	}
+
+	private Fallback fallback;
+	private NetlinkRoutingBackend backend;
+
+	@Before
+	public void setUp() {
+		assumeTrue(NetlinkRoutingBackend.isAvailable());
+		fallback = new Fallback();
+		backend = new NetlinkRoutingBackend(fallback);
+	}
+
+	@After
+	public void tearDown() {
+		if (backend != null) {
+			backend.close();
+		}
+	}
+
+	@Test
+	public void dumpDefaultRules() {
+		RuleIndex rules = backend.dumpRules(4);
+		assertArrayEquals(new int[] { 0 }, rules.getPriorities(IPEvent.TABLE_LOCAL));
+		assertArrayEquals(new int[] { 32766 }, rules.getPriorities(IPEvent.TABLE_MAIN));
+	}
+
+	@Test
+	public void ruleAndRoutesInNamespace() {
+		assumeTrue(Boolean.getBoolean("netlink.netns"));
+
+		for (int family : new int[] { 4, 6 }) {
+			String address = family == 6 ? "2001:db8::2" : "10.9.0.2";
+			String subnet = family == 6 ? "2001:db8::" : "10.9.0.0";
+			int prefix = family == 6 ? 64 : 24;
+
+			RouteTransaction.Result result = new RouteTransaction(backend)
+					.addRule(family, address, TABLE)
+					.addLinkRoute(family, subnet, prefix, "lo", TABLE)
+					.commit(true);
+			assertTrue(result.getError(0) + " " + result.getError(1), result.isSuccess());
+			assertEquals("not privileged", 0, fallback.ops.size());
+
+			int[] prios = backend.rulePriorities(family, TABLE);
+			assertEquals(1, prios.length);
+
+			result = new RouteTransaction(backend)
+					.flushTable(family, TABLE)
+					.deleteRule(family, prios[0])
+					.commit(false);
+			assertTrue(Arrays.toString(prios), result.isSuccess());
+			assertEquals(0, backend.rulePriorities(family, TABLE).length);
+		}
+	}
+}
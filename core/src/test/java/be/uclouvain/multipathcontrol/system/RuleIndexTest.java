@@ -0,0 +1,83 @@
+/*
+ * This file is part of MultipathControl.
+ *
+ * Copyright 2012 UCLouvain - Gregory Detal <first.last@uclouvain.be>
+ * Copyright 2015 UCLouvain - Matthieu Baerts <first.last@student.uclouvain.be>
+ *
+ * MultipathControl is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package be.uclouvain.multipathcontrol.system;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RuleIndexTest {
+
+	private static RuleIndex dump() {
+		return RuleIndex.parse(Arrays.asList(
+				"0:	from all lookup local ",
+				"32764:	from 10.0.0.3 lookup 1004 ",
+				"32765:	from 192.168.1.10 lookup 1003 ",
+				"32765:	from 192.168.1.11 lookup 1003 ",
+				"32765:	from 10.0.0.4 lookup 1004 ",
+				"32766:	from all lookup main ",
+				"32767:	from all lookup default ",
+				"garbage",
+				"100:	from all fwmark 0x1 blackhole"));
+	}
+
+	@Test
+	public void parse() {
+		RuleIndex index = dump();
+		assertEquals(7, index.size());
+		assertArrayEquals(new int[] { 32765, 32765 }, index.getPriorities(1003));
+		assertArrayEquals(new int[] { 32764, 32765 }, index.getPriorities(1004));
+		assertArrayEquals(new int[] { 32766 }, index.getPriorities(254));
+		assertArrayEquals(new int[] { 0 }, index.getPriorities(255));
+		assertArrayEquals(new int[0], index.getPriorities(1005));
+	}
+
+	@Test
+	public void removeSinglePriority() {
+		RuleIndex index = dump();
+		assertTrue(index.removePriority(32764));
+		assertArrayEquals(new int[] { 32765 }, index.getPriorities(1004));
+		assertEquals(6, index.size());
+		// already gone
+		assertTrue(index.removePriority(32764));
+		assertEquals(6, index.size());
+	}
+
+	@Test
+	public void removeSharedPriority() {
+		RuleIndex index = dump();
+		// "ip rule del prio 32765" only removes one of them
+		assertFalse(index.removePriority(32765));
+		assertEquals(7, index.size());
+	}
+
+	@Test
+	public void fromPairs() {
+		RuleIndex index = RuleIndex.fromPairs(new int[] { 1003, 20, 1003, 10, 1004, 30 });
+		assertArrayEquals(new int[] { 10, 20 }, index.getPriorities(1003));
+		assertArrayEquals(new int[] { 30 }, index.getPriorities(1004));
+	}
+}